@@ -21,12 +21,18 @@ import com.fasterxml.jackson.annotation.JsonProperty
 import org.springframework.http.HttpHeaders
 import org.springframework.http.MediaType
 import org.springframework.web.reactive.function.BodyInserters
+import org.springframework.web.reactive.function.client.ClientResponse
 import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Flux
+import reactor.core.publisher.MonoProcessor
 import java.lang.Integer.parseInt
+import java.time.Duration
 import java.util.*
 
 const val UUID_HEADER_NAME = "UUID"
 
+private val CANCEL_TIMEOUT = Duration.ofSeconds(5)
+
 /**
  * It is used to do [MemberUsageRequest] and process responses in stream format.
  * Note that all methods can be invoked concurrently, from different threads.
@@ -36,23 +42,33 @@ abstract class MemberUsageRequestProcessor(val serverUrls: List<String>,
     private val uuid = UUID.randomUUID().toString()
     private @Volatile
     var cancelled = false
+    private val cancelSignal = MonoProcessor.create<Unit>()
     abstract fun onNewUsages(serverUrl: String, usages: List<MemberUsage>)
     abstract fun onError(serverUrl: String, message: String, throwable: Throwable?)
     abstract fun onComplete()
 
+    /**
+     * Invoked when the server has found [MemberUsageRequest.maxUsages] usages and stopped the search.
+     */
+    open fun onUsagesNumberExceed(serverUrl: String) {}
+
     fun doRequest() {
         serverUrls.forEach { url ->
+            if (cancelled)
+                return@forEach
             try {
-                val webClient = WebClient.builder()
-                        .baseUrl(url)
-                        .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_STREAM_JSON_VALUE)
-                        .defaultHeader(UUID_HEADER_NAME, uuid)
-                        .build()
-                val usagesFlux = webClient.post()
+                val usagesFlux = createWebClient(url).post()
                         .uri("/usages")
+                        .header(HttpHeaders.ACCEPT, COMPACT_USAGES_MEDIA_TYPE.toString())
                         .body(BodyInserters.fromObject(memberUsagesRequest))
-                        .exchange().flatMapMany { it.bodyToFlux(MemberUsage::class.java) }
-                usagesFlux.toStream().forEach{ onNewUsages(url, listOf(it)) }
+                        .exchange().flatMapMany { readMessages(it) }
+                        .takeUntilOther(cancelSignal) // stop receiving usages as soon as the request is cancelled
+                usagesFlux.toStream().forEach {
+                    if (it.usage != null)
+                        onNewUsages(url, listOf(it.usage))
+                    if (it.complete == CompleteMessage.USAGES_NUMBER_EXCEED)
+                        onUsagesNumberExceed(url)
+                }
 //                val block = CountDownLatch(1)
 //                usagesFlux.doFinally { block.countDown() }
 //                block.await()
@@ -82,15 +98,73 @@ abstract class MemberUsageRequestProcessor(val serverUrls: List<String>,
         onComplete()
     }
 
+    /**
+     * Stops receiving usages and asks all servers to stop processing this request.
+     * Cancellation requests are sent asynchronously, so this method does not wait for servers
+     * and can be invoked from UI threads.
+     */
     fun cancel() {
+        if (cancelled)
+            return
         cancelled = true
+        cancelSignal.onNext(Unit)
+        serverUrls.forEach { url ->
+            try {
+                createWebClient(url).delete()
+                        .uri("/usages")
+                        .exchange().flatMap { it.bodyToMono(Void::class.java) }
+                        .timeout(CANCEL_TIMEOUT)
+                        .subscribe({}, { e -> onError(url, "Error during cancellation of request to $url", e) })
+            } catch (e: Throwable) {
+                onError(url, "Error during cancellation of request to $url", e)
+            }
+        }
     }
+
+    /**
+     * Reads messages in the compact format if the server supports it, otherwise in the default one.
+     */
+    private fun readMessages(response: ClientResponse): Flux<MemberUsagesMessage> {
+        if (!response.headers().header(FORMAT_HEADER_NAME).contains(COMPACT_FORMAT))
+            return response.bodyToFlux(MemberUsagesMessage::class.java)
+        val decoder = CompactUsagesDecoder()
+        return response.bodyToFlux(CompactUsagesMessage::class.java).handle<MemberUsagesMessage> { message, sink ->
+            val decoded = decoder.decode(message)
+            if (decoded != null)
+                sink.next(decoded)
+        }
+    }
+
+    private fun createWebClient(url: String) = WebClient.builder()
+            .baseUrl(url)
+            .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_STREAM_JSON_VALUE)
+            .defaultHeader(UUID_HEADER_NAME, uuid)
+            .build()
 }
 
 enum class CompleteMessage {
     COMPLETE, USAGES_NUMBER_EXCEED
 }
 
+/**
+ * Element of the `/usages` response stream, contains either a found usage
+ * or a terminal [CompleteMessage] which is the last element of the stream.
+ */
+data class MemberUsagesMessage(
+        @JsonProperty("usage") val usage: MemberUsage? = null,
+        @JsonProperty("complete") val complete: CompleteMessage? = null
+)
+
+/**
+ * Element of the `/usages/batch` response stream, it is the same as [MemberUsagesMessage]
+ * for the request with the specified index in the batch.
+ */
+data class MemberUsagesBatchMessage(
+        @JsonProperty("request") val requestIndex: Int,
+        @JsonProperty("usage") val usage: MemberUsage? = null,
+        @JsonProperty("complete") val complete: CompleteMessage? = null
+)
+
 
 /**
  * Parses artifact mask which should be in one of the following formats:
@@ -136,9 +210,62 @@ data class MemberUsageRequest(
 //        @JsonProperty("findBaseClassesUsages") val findBaseClassesUsages: Boolean,
         @JsonProperty("findDerivedClassesUsages") val findDerivedClassesUsages: Boolean,
 //        @JsonProperty("findBaseMethodsUsages") val findBaseMethodsUsages: Boolean,
-        @JsonProperty("findDerivedMethodsUsages") val findDerivedMethodsUsages: Boolean
+        @JsonProperty("findDerivedMethodsUsages") val findDerivedMethodsUsages: Boolean,
+        @JsonProperty("maxUsages") val maxUsages: Int = 0 // stop searching after this number of usages, non-positive for no limit
+)
+
+/**
+ * Numbers of usages found for [MemberUsageRequest], it is returned by the `/usages/summary` endpoint.
+ * Artifacts which cannot be analyzed are not counted, their number is [notAnalyzedArtifacts].
+ */
+data class MemberUsagesSummary(
+        @JsonProperty("total") val total: Int,
+        @JsonProperty("byKind") val byKind: Map<UsageKind, Int>,
+        @JsonProperty("byGroupId") val byGroupId: Map<String, Int>,
+        @JsonProperty("byArtifact") val byArtifact: List<ArtifactUsagesSummary>,
+        @JsonProperty("notAnalyzedArtifacts") val notAnalyzedArtifacts: Int
+)
+
+data class ArtifactUsagesSummary(
+        @JsonProperty("artifact") val artifact: Artifact,
+        @JsonProperty("total") val total: Int,
+        @JsonProperty("byKind") val byKind: Map<UsageKind, Int>
+)
+
+/**
+ * State of a find usages job which is submitted by the `/jobs` endpoint.
+ */
+enum class UsagesJobState {
+    RUNNING,
+    COMPLETED,
+    USAGES_NUMBER_EXCEED, // completed after [MemberUsageRequest.maxUsages] usages
+    FAILED,
+    CANCELLED
+}
+
+/**
+ * Progress of a find usages job, it is returned by the `/jobs/{id}` endpoint.
+ * Found usages can be fetched by the `/jobs/{id}/usages` endpoint while the job is running too.
+ */
+data class UsagesJobStatus(
+        @JsonProperty("id") val id: String,
+        @JsonProperty("request") val request: MemberUsageRequest,
+        @JsonProperty("state") val state: UsagesJobState,
+        @JsonProperty("artifacts") val artifacts: Int, // number of artifacts to be searched, -1 if still unknown
+        @JsonProperty("processedArtifacts") val processedArtifacts: Int,
+        @JsonProperty("usages") val usages: Int, // number of usages found so far
+        @JsonProperty("error") val error: String?
 )
 
+/**
+ * Page of usages found by a find usages job, [usages] start from the [offset]-th found usage.
+ */
+data class UsagesJobPage(
+        @JsonProperty("id") val id: String,
+        @JsonProperty("offset") val offset: Int,
+        @JsonProperty("usages") val usages: List<MemberUsage>,
+        @JsonProperty("state") val state: UsagesJobState
+)
 
 val usages = arrayListOf(
         MemberUsage(
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.api
+
+import com.fasterxml.jackson.annotation.JsonInclude
+import com.fasterxml.jackson.annotation.JsonProperty
+import org.springframework.http.MediaType
+
+/*
+ * Compact format of the `/usages` response stream. Every artifact, member and file name is sent only once
+ * as a definition, and it is referenced by its number in the following usages. Definitions of every kind
+ * are numbered from 0 in order of appearance. The client requests this format with the [COMPACT_USAGES_MEDIA_TYPE]
+ * in the `Accept` header, the server confirms it with the [FORMAT_HEADER_NAME] header of the response.
+ */
+
+const val FORMAT_PARAMETER = "format"
+const val COMPACT_FORMAT = "compact"
+const val FORMAT_HEADER_NAME = "Usages-Format"
+
+val COMPACT_USAGES_MEDIA_TYPE = MediaType(MediaType.APPLICATION_STREAM_JSON, mapOf(FORMAT_PARAMETER to COMPACT_FORMAT))
+
+/**
+ * Returns `true` if the compact format is requested by the specified `Accept` header.
+ */
+fun acceptsCompactFormat(accept: String?): Boolean {
+    if (accept == null)
+        return false
+    return MediaType.parseMediaTypes(accept).any {
+        it.getParameter(FORMAT_PARAMETER) == COMPACT_FORMAT && it.isCompatibleWith(MediaType.APPLICATION_STREAM_JSON)
+    }
+}
+
+/**
+ * Element of the compact response stream, it contains one of the fields.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+data class CompactUsagesMessage(
+        @JsonProperty("a") val artifact: Artifact? = null, // artifact definition
+        @JsonProperty("m") val member: Member? = null, // member definition
+        @JsonProperty("f") val file: String? = null, // file name definition
+        @JsonProperty("u") val usage: CompactUsage? = null,
+        @JsonProperty("c") val complete: CompleteMessage? = null
+)
+
+/**
+ * [MemberUsage] with references to definitions, -1 is used for absent file.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+data class CompactUsage(
+        @JsonProperty("m") val member: Int,
+        @JsonProperty("k") val usageKind: UsageKind,
+        @JsonProperty("a") val artifact: Int,
+        @JsonProperty("l") val location: Int,
+        @JsonProperty("f") val file: Int,
+        @JsonProperty("n") val lineNumber: Int?
+)
+
+/**
+ * Converts [MemberUsagesMessage]s of one response stream to [CompactUsagesMessage]s.
+ */
+class CompactUsagesEncoder {
+    private val artifactIds = HashMap<Artifact, Int>()
+    private val memberIds = HashMap<Member, Int>()
+    private val fileIds = HashMap<String, Int>()
+
+    fun encode(message: MemberUsagesMessage): List<CompactUsagesMessage> {
+        val usage = message.usage ?: return listOf(CompactUsagesMessage(complete = message.complete))
+        val messages = ArrayList<CompactUsagesMessage>(1)
+        val location = usage.location
+        val compactUsage = CompactUsage(
+                member = id(memberIds, usage.member, messages) { CompactUsagesMessage(member = it) },
+                usageKind = usage.usageKind,
+                artifact = id(artifactIds, location.artifact, messages) { CompactUsagesMessage(artifact = it) },
+                location = id(memberIds, location.member, messages) { CompactUsagesMessage(member = it) },
+                file = if (location.file == null) -1 else id(fileIds, location.file, messages) { CompactUsagesMessage(file = it) },
+                lineNumber = location.lineNumber)
+        messages += CompactUsagesMessage(usage = compactUsage)
+        return messages
+    }
+
+    private inline fun <T> id(ids: MutableMap<T, Int>, value: T, messages: MutableList<CompactUsagesMessage>,
+                              definition: (T) -> CompactUsagesMessage): Int {
+        ids[value]?.let { return it }
+        val id = ids.size
+        ids[value] = id
+        messages += definition(value)
+        return id
+    }
+}
+
+/**
+ * Restores [MemberUsagesMessage]s from [CompactUsagesMessage]s of one response stream.
+ * Decoded usages share equal artifacts and members.
+ */
+class CompactUsagesDecoder {
+    private val artifacts = ArrayList<Artifact>()
+    private val members = ArrayList<Member>()
+    private val files = ArrayList<String>()
+
+    /**
+     * Returns the decoded message, or `null` if the specified message is a definition.
+     */
+    fun decode(message: CompactUsagesMessage): MemberUsagesMessage? {
+        message.artifact?.let { artifacts += it; return null }
+        message.member?.let { members += it; return null }
+        message.file?.let { files += it; return null }
+        val usage = message.usage ?: return MemberUsagesMessage(complete = message.complete)
+        val location = Location(artifact = artifacts[usage.artifact], member = members[usage.location],
+                file = if (usage.file < 0) null else files[usage.file], lineNumber = usage.lineNumber)
+        return MemberUsagesMessage(usage = MemberUsage(members[usage.member], usage.usageKind, location))
+    }
+}
@@ -41,7 +41,8 @@ fun main(args: Array<String>) {
             findFields = getBooleanProperty("findFields", true),
             findMethods = getBooleanProperty("findMethods", true),
             findDerivedMethodsUsages = getBooleanProperty("findDerivedMethodsUsages", true),
-            searchScope = createArtifactMaskFromString(getStringProperty("searchScope", "*:*:*"))
+            searchScope = createArtifactMaskFromString(getStringProperty("searchScope", "*:*:*")),
+            maxUsages = getStringProperty("maxUsages", "0").toInt()
     )
     val requestProcessor = object : MemberUsageRequestProcessor(servers, request) {
         override fun onNewUsages(serverUrl: String, usages: List<MemberUsage>) {
@@ -55,8 +56,16 @@ fun main(args: Array<String>) {
         override fun onComplete() {
             println("COMPLETED")
         }
+
+        override fun onUsagesNumberExceed(serverUrl: String) {
+            println("USAGES NUMBER EXCEEDED on $serverUrl")
+        }
     }
+    // Cancel the request on servers if the client is interrupted
+    val cancelHook = Thread { requestProcessor.cancel() }
+    Runtime.getRuntime().addShutdownHook(cancelHook)
     requestProcessor.doRequest()
+    Runtime.getRuntime().removeShutdownHook(cancelHook)
 }
 
 private fun getBooleanProperty(key: String, defaultValue: Boolean): Boolean {
@@ -19,6 +19,7 @@ package com.devexperts.usages.idea
 
 import com.devexperts.usages.api.*
 import com.intellij.notification.*
+import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.progress.ProgressIndicator
@@ -29,9 +30,12 @@ import com.intellij.openapi.ui.MessageType
 import com.intellij.openapi.ui.popup.JBPopupFactory
 import com.intellij.openapi.wm.WindowManager
 import com.intellij.ui.AppUIUtil
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 
 private val LOG = Logger.getInstance("com.devexperts.usages.idea.FindUsages")
+private const val CANCEL_CHECK_PERIOD_MILLIS = 100L
 
 fun findUsagesAndShow(project: Project, member: Member) {
     // Check that there is at least one Usages server in the plugin configuration
@@ -55,7 +59,8 @@ fun findUsagesAndShow(project: Project, member: Member) {
                     findFields = requestConfiguration.findFieldUsages,
                     findMethods = requestConfiguration.findMethodUsages,
                     findDerivedMethodsUsages = requestConfiguration.findMethodOverridesUsages,
-                    searchScope = createArtifactMaskFromString(requestConfiguration.artifactMask + ":" + requestConfiguration.numberOfLastVersions)
+                    searchScope = createArtifactMaskFromString(requestConfiguration.artifactMask + ":" + requestConfiguration.numberOfLastVersions),
+                    maxUsages = requestConfiguration.maxUsages
             )
     ) {
         override fun onNewUsages(serverUrl: String, usages: List<MemberUsage>) {
@@ -73,12 +78,28 @@ fun findUsagesAndShow(project: Project, member: Member) {
         }
 
         override fun onComplete() {}
+
+        override fun onUsagesNumberExceed(serverUrl: String) {
+            val message = "Only first ${requestConfiguration.maxUsages} Maven usages are shown, narrow the search scope to see others"
+            showBalloonNotification(project, message, MessageType.WARNING)
+        }
     }
     // Do request as background task, could be cancelled by user
     ProgressManager.getInstance().run(object : Task.Backgroundable(project, "Find Maven usages...", true) {
         override fun run(progressIndicator: ProgressIndicator) {
+            // Run the blocking request in a pooled thread and check the indicator meanwhile,
+            // the request is cancelled on the servers in onCancel()
+            val request = ApplicationManager.getApplication().executeOnPooledThread { requestProcessor.doRequest() }
             try {
-                requestProcessor.doRequest()
+                while (true) {
+                    progressIndicator.checkCanceled()
+                    try {
+                        request.get(CANCEL_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS)
+                        return
+                    } catch (e: TimeoutException) {
+                        // Check cancellation again
+                    }
+                }
             } catch (e: ProcessCanceledException) {
                 // Cancelled by user
             }
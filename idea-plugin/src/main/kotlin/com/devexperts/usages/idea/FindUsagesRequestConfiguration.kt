@@ -42,6 +42,7 @@ data class FindUsagesRequestConfiguration(
         // Search area restrictions
         val artifactMask: String = "*:*:*",
         val numberOfLastVersions: Int = 3,
+        val maxUsages: Int = 10000,
         // Interface
         val openInNewTab: Boolean = false
 )
@@ -104,6 +105,7 @@ class FindUsagesRequestConfigurationDialog(private val project: Project, private
                 findMethodOverridesUsages = dialogPanel.jFindMethodOverridesUsages.isSelected,
                 artifactMask = dialogPanel.jArtifactMask.text,
                 numberOfLastVersions = dialogPanel.jNumberOfLastVersions.text.toInt(),
+                maxUsages = configComponent.state.maxUsages,
                 openInNewTab = dialogPanel.jNewTab.isSelected
         ))
     }
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer;
+
+/**
+ * Phases of artifact analysis which are timed separately, see {@link AnalysisTimer}.
+ */
+public enum AnalysisPhase {
+    /**
+     * Downloading of the artifact from its repository.
+     */
+    DOWNLOAD,
+    /**
+     * Reading of the cached usages report of the artifact.
+     */
+    REPORT_READ,
+    /**
+     * Scanning of the downloaded artifact classes and writing of its usages report.
+     */
+    SCAN,
+    /**
+     * Filtering of the found usages by the requested members.
+     */
+    USAGES_FILTER
+}
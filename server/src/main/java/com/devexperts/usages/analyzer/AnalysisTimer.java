@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer;
+
+import java.util.function.Supplier;
+
+/**
+ * Receives durations of {@link AnalysisPhase}s, so that it is possible to find out
+ * whether the analysis is bound by network, disk or CPU.
+ */
+public interface AnalysisTimer {
+    AnalysisTimer NONE = (phase, nanos) -> {};
+
+    void record(AnalysisPhase phase, long nanos);
+
+    /**
+     * Executes the specified action and records its duration for the specified phase.
+     */
+    default <T> T time(AnalysisPhase phase, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+}
@@ -17,13 +17,18 @@
  */
 package com.devexperts.usages.analyzer;
 
+import com.devexperts.usages.analyzer.concurrent.Cancellation;
 import com.devexperts.usages.analyzer.internal.MemberInternal;
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper;
+import com.devexperts.usages.analyzer.tune.UsagesKeeper;
 import com.devexperts.usages.analyzer.walker.walkers.ZipRecursiveWalker;
 import com.devexperts.usages.api.Artifact;
 import com.devexperts.usages.api.Location;
 import com.devexperts.usages.api.Member;
 import com.devexperts.usages.api.MemberUsage;
 import com.devexperts.usages.api.UsageKind;
+import com.devexperts.usages.server.analyzer.MemberUsageQuery;
+import com.devexperts.usages.server.artifacts.ArtifactStore;
 import com.devexperts.usages.server.config.Configuration;
 import com.devexperts.usages.server.indexer.MavenIndexer;
 import org.apache.log4j.LogManager;
@@ -32,7 +37,8 @@ import org.apache.log4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,71 +46,205 @@ import java.util.Set;
 public class Analyzer0 {
     private static final Logger logger = LogManager.getLogger(Analyzer0.class);
 
-    public List<MemberUsage> analyze(MavenIndexer indexer, Artifact artifact) {
-        List<MemberUsage> result = new ArrayList<>();
+    static final String BINARY_REPORT_EXTENSION = ".usagesbin";
+    // Text reports are written by previous versions, they are converted on the first read
+    static final String LEGACY_REPORT_EXTENSION = ".zip";
 
+    /**
+     * Returns usages found in the specified artifact, the artifact is downloaded and
+     * analyzed if its usages report has not been cached yet. Durations of the download,
+     * report reading and scanning are recorded to the specified timer.
+     * Returns {@code null} if the artifact cannot be downloaded or analyzed.
+     *
+     * @throws java.util.concurrent.CancellationException if the specified cancellation is cancelled
+     */
+    public UsagesScanResult analyze(MavenIndexer indexer, Artifact artifact, Cancellation cancellation,
+        AnalysisTimer timer)
+    {
+        File reportFile = new File(getUsagesCacheFilePath(artifact, BINARY_REPORT_EXTENSION));
+        File legacyReportFile = new File(getUsagesCacheFilePath(artifact, LEGACY_REPORT_EXTENSION));
+        if (reportFile.exists() || legacyReportFile.exists()) {
+            long start = System.nanoTime();
+            try {
+                UsagesScanResult usagesScanResult = readCachedReport(reportFile, legacyReportFile, cancellation);
+                if (usagesScanResult != null)
+                    return usagesScanResult;
+            } finally {
+                timer.record(AnalysisPhase.REPORT_READ, System.nanoTime() - start);
+            }
+        }
+        File artifactFile = timer.time(AnalysisPhase.DOWNLOAD, () -> indexer.downloadArtifact(artifact, cancellation));
+        if (artifactFile == null) {
+            logger.error("Artifact hasn't been downloaded");
+            return null;
+        }
         UsagesScanResult usagesScanResult = null;
+        long start = System.nanoTime();
+        // The artifact is kept in the store, so that it is not downloaded again if it is analyzed again
+        ArtifactStore artifactStore = indexer.getArtifactStore();
+        artifactStore.pin(artifactFile);
+        try {
+            usagesScanResult = analyzeArtifactFile(artifactFile, cancellation);
+            reportFile.getParentFile().mkdirs();
+            usagesScanResult.writeBinaryReportAtomically(reportFile);
+        } catch (IOException e) {
+            logger.error("Error while analyzing " + artifact, e);
+        } finally {
+            artifactStore.unpin(artifactFile);
+            timer.record(AnalysisPhase.SCAN, System.nanoTime() - start);
+        }
+        return usagesScanResult;
+    }
 
-        File artifactUsagesCacheFile = new File(getUsagesCacheFilePath(artifact));
-        if (!artifactUsagesCacheFile.exists()) {
-            File artifactFile = indexer.downloadArtifact(artifact);
-            if (artifactFile == null) {
-                logger.error("Artifact hasn't been downloaded");
-                return Collections.emptyList();
-            }
+    /**
+     * Reads the cached report of an artifact, reports in the legacy text format are converted
+     * to the binary one. Returns {@code null} if the report is corrupted and has been deleted,
+     * so the artifact should be analyzed again.
+     */
+    private static UsagesScanResult readCachedReport(File reportFile, File legacyReportFile,
+        Cancellation cancellation)
+    {
+        if (reportFile.exists()) {
             try {
-                usagesScanResult = analyzeFile(artifactFile);
-                artifactUsagesCacheFile.getParentFile().mkdirs();
-                usagesScanResult.writeReportAtomically(artifactUsagesCacheFile);
-                boolean deleted = artifactFile.delete();
-                if (!deleted) {
-                    logger.warn(artifactFile + " has not been deleted");
+                boolean version1 = BinaryReport.isVersion1(reportFile);
+                UsagesScanResult usagesScanResult = UsagesScanResult.readBinaryReport(reportFile, cancellation);
+                if (version1) {
+                    usagesScanResult.writeBinaryReportAtomically(reportFile);
+                    logger.info(reportFile + " has been converted to the current version");
                 }
+                return usagesScanResult;
             } catch (IOException e) {
-                logger.error("Error while analyzing " + artifact, e);
-            }
-        } else {
-            try {
-                usagesScanResult = analyzeFile(artifactUsagesCacheFile);
-            } catch (IOException e) {
-                logger.error("Error while parsing " + artifactUsagesCacheFile, e);
+                logger.error("Error while reading " + reportFile + ", the artifact will be analyzed again", e);
+                deleteReport(reportFile);
+                return null;
             }
         }
+        try {
+            UsagesScanResult usagesScanResult = analyzeFile(legacyReportFile, cancellation);
+            usagesScanResult.writeBinaryReportAtomically(reportFile);
+            deleteReport(legacyReportFile);
+            return usagesScanResult;
+        } catch (IOException e) {
+            logger.error("Error while converting " + legacyReportFile + ", the artifact will be analyzed again", e);
+            deleteReport(legacyReportFile);
+            return null;
+        }
+    }
 
-        if (usagesScanResult != null)
-            return getMemberUsages(usagesScanResult, artifact);
+    private static void deleteReport(File file) {
+        if (file.exists() && !file.delete())
+            logger.warn(file + " has not been deleted");
+    }
 
-        return Collections.emptyList();
+    static UsagesScanResult analyzeFile(File file, Cancellation cancellation) throws IOException {
+        return new UsagesScanner(ZipRecursiveWalker.ofFile(file, cancellation), cancellation).analyze();
     }
 
-    static UsagesScanResult analyzeFile(File file) throws IOException {
-        return new UsagesScanner(ZipRecursiveWalker.ofFile(file)).analyze();
+    /**
+     * Analyzes the downloaded artifact, class files which are equal to the already analyzed ones
+     * (e.g. in previous versions of the artifact) are not analyzed again if class fragments are enabled.
+     */
+    static UsagesScanResult analyzeArtifactFile(File file, Cancellation cancellation) throws IOException {
+        if (!Configuration.INSTANCE.getClassFragments())
+            return analyzeFile(file, cancellation);
+        ClassFragmentStore fragmentStore = new ClassFragmentStore(ArtifactStore.Companion.getFragments());
+        return new UsagesScanner(ZipRecursiveWalker.ofFile(file, cancellation), cancellation, fragmentStore)
+            .analyze();
     }
 
-    static List<MemberUsage> getMemberUsages(UsagesScanResult usagesScanResult, Artifact artifact) {
+    /**
+     * Returns usages of members requested by the specified query.
+     * Only usages of the requested classes are looked up and converted to {@link MemberUsage}s.
+     */
+    public static List<MemberUsage> getMemberUsages(UsagesScanResult usagesScanResult, Artifact artifact,
+        MemberUsageQuery query)
+    {
         List<MemberUsage> result = new ArrayList<>();
-
-        Set<Map.Entry<String, ClassUsages>> allClassUsages =
-            usagesScanResult.getUsages().getUsages().allClassUsages();
-        for (Map.Entry<String, ClassUsages> entry : allClassUsages) {
-            String className = entry.getKey();
-            Map<String, Map<MemberInternal, Set<Usage>>> classUsages = entry.getValue().getUsages();
-            classUsages.forEach((memberName, memberEnumSetMap) -> {
-                MemberInternal mmm = new MemberInternal(className, memberName);
-                Member member = mmm.toMember();
-                memberEnumSetMap.forEach((m, usages) -> {
-                    for (Usage usage : usages) {
-                        Location location = new Location(artifact, m.toMember(), usage.getFileName(), usage.getLineNumber());
-                        MemberUsage memberUsage = new MemberUsage(member, convertUseKind(usage.getUseKind()), location);
-                        result.add(memberUsage);
-                    }
-                });
-            });
+        UsagesKeeper usagesKeeper = usagesScanResult.getUsages().getUsages();
+        String requestedClassName = query.getRequestedClassName();
+        if (requestedClassName != null) {
+            ClassUsages classUsages = usagesKeeper.get(requestedClassName);
+            if (classUsages != null)
+                addMemberUsages(result, classUsages, artifact, query);
+        } else {
+            for (Map.Entry<String, ClassUsages> entry : usagesKeeper.allClassUsages()) {
+                if (query.matchesClass(entry.getKey()))
+                    addMemberUsages(result, entry.getValue(), artifact, query);
+            }
         }
+        return result;
+    }
+
+    /**
+     * Reads the whole cached report of the artifact.
+     * Returns {@code null} if the artifact has no cached report in the binary format.
+     *
+     * @throws IOException if the report cannot be read
+     * @throws java.util.concurrent.CancellationException if the specified cancellation is cancelled
+     */
+    public static UsagesScanResult readReport(Artifact artifact, Cancellation cancellation) throws IOException {
+        File reportFile = new File(getUsagesCacheFilePath(artifact, BINARY_REPORT_EXTENSION));
+        // Reports of the first version are converted by the full analysis
+        if (!reportFile.exists() || BinaryReport.isVersion1(reportFile))
+            return null;
+        return UsagesScanResult.readBinaryReport(reportFile, cancellation);
+    }
 
+    /**
+     * Returns usages of members requested by every of the specified queries from the cached report
+     * of the artifact. Only the report entries of the requested classes are read.
+     * Returns {@code null} if the artifact has no cached report in the binary format.
+     *
+     * @throws IOException if the report cannot be read
+     * @throws java.util.concurrent.CancellationException if the specified cancellation is cancelled
+     */
+    public static List<List<MemberUsage>> findCachedMemberUsages(Artifact artifact, List<MemberUsageQuery> queries,
+        Cancellation cancellation) throws IOException
+    {
+        File reportFile = new File(getUsagesCacheFilePath(artifact, BINARY_REPORT_EXTENSION));
+        // Reports of the first version are converted by the full analysis
+        if (!reportFile.exists() || BinaryReport.isVersion1(reportFile))
+            return null;
+        BinaryReport.Reader reader = BinaryReport.Reader.open(reportFile);
+        Cache cache = new Cache();
+        Usages usages = new Usages(cache, new SimpleUsagesKeeper(cache), new Config(), cancellation);
+        usages.setNeedPostprocessing(false);
+        for (MemberUsageQuery query : queries) {
+            reader.readClasses(query.getRequestedClassPrefix(), query::matchesClass, usages);
+        }
+        UsagesScanResult usagesScanResult = new UsagesScanResult(usages);
+        List<List<MemberUsage>> result = new ArrayList<>(queries.size());
+        for (MemberUsageQuery query : queries) {
+            result.add(getMemberUsages(usagesScanResult, artifact, query));
+        }
         return result;
     }
 
+    private static void addMemberUsages(List<MemberUsage> result, ClassUsages classUsages, Artifact artifact,
+        MemberUsageQuery query)
+    {
+        String className = classUsages.getClassName();
+        classUsages.getUsages().forEach((memberName, memberEnumSetMap) -> {
+            Member member = new MemberInternal(className, memberName).toMember();
+            if (!query.matches(member))
+                return;
+            memberEnumSetMap.forEach((m, usages) -> {
+                Member locationMember = m.toMember();
+                // Different use kinds could be converted to the same usage kind, such duplicates are skipped
+                // as in the usages index, see UsagesManager.storeArtifactUsages
+                Set<List<Object>> added = new HashSet<>();
+                for (Usage usage : usages) {
+                    UsageKind usageKind = convertUseKind(usage.getUseKind());
+                    if (!added.add(Arrays.asList(usageKind, usage.getFileName(), usage.getLineNumber())))
+                        continue;
+                    Location location = new Location(artifact, locationMember, usage.getFileName(),
+                        usage.getLineNumber());
+                    result.add(new MemberUsage(member, usageKind, location));
+                }
+            });
+        });
+    }
+
 //    static Member getMember(String className, String memberName) {
 //        String qualifiedMemberName = className + "#" + memberName;
 //        if (CLASS_MEMBER_NAME.equals(memberName)) {
@@ -127,7 +267,7 @@ public class Analyzer0 {
 //        }
 //    }
 
-    private static UsageKind convertUseKind(UseKind useKind) {
+    public static UsageKind convertUseKind(UseKind useKind) {
         switch (useKind) {
         case ANEWARRAY:
             return UsageKind.ANEWARRAY;
@@ -182,7 +322,16 @@ public class Analyzer0 {
         }
     }
 
-    static String getUsagesCacheFilePath(Artifact artifact) {
+    /**
+     * Returns {@code true} if the usages report of the artifact is cached,
+     * so it can be analyzed without downloading.
+     */
+    public static boolean isUsagesCached(Artifact artifact) {
+        return new File(getUsagesCacheFilePath(artifact, BINARY_REPORT_EXTENSION)).exists() ||
+            new File(getUsagesCacheFilePath(artifact, LEGACY_REPORT_EXTENSION)).exists();
+    }
+
+    static String getUsagesCacheFilePath(Artifact artifact, String extension) {
         StringBuilder builder = new StringBuilder()
             .append(getCacheDirectory())
             .append(File.separator)
@@ -196,7 +345,7 @@ public class Analyzer0 {
                 .append(artifact.getClassifier())
                 .append(")");
         }
-        builder.append(".zip");
+        builder.append(extension);
         return builder.toString();
     }
 
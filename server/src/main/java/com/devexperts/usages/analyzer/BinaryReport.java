@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer;
+
+import com.devexperts.usages.analyzer.internal.MemberInternal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Versioned binary format of usages reports. Every string is stored once in the string table
+ * and is referenced by its index, numbers in class sections are stored as varints:
+ * <pre>
+ * report    := MAGIC version stringCount classCount stringsLength stringOffset* directory strings classes
+ * directory := (className offset length)*  -- sorted by class names, offsets are relative to classes
+ * strings   := (length utf8-bytes)*
+ * class     := count (member count (usedFromClass usedFromMember count (useKind fileName+1 zigzag(line))*)*)*
+ *              count (inheritableMember)*
+ * </pre>
+ * Header fields, string offsets and the directory have fixed sizes, so a {@link Reader} finds
+ * the requested classes with a binary search and reads only the strings and class sections it needs.
+ * Text reports written by {@link Usages#writeToZipFile} are still supported as a human-readable export.
+ * Reports of the first version have variable-size headers, they are only {@link #readVersion1 read}
+ * entirely to be converted to the current version.
+ */
+class BinaryReport {
+    static final int MAGIC = 0x55534752; // "USGR"
+    static final int VERSION = 2;
+
+    private static final int VERSION_1 = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int DIRECTORY_ENTRY_SIZE = 12;
+
+    private BinaryReport() {}
+
+    static void write(Usages usages, OutputStream outputStream) throws IOException {
+        write(usages, outputStream, false);
+    }
+
+    /**
+     * Writes the usages, classes without usages are written only if they have inheritable members
+     * and {@code withInheritableMembers} is set, it is needed for not postprocessed usages.
+     */
+    static void write(Usages usages, OutputStream outputStream, boolean withInheritableMembers) throws IOException {
+        Map<String, ClassUsages> classes = new TreeMap<>();
+        for (Map.Entry<String, ClassUsages> entry : usages.getUsages().allClassUsages()) {
+            ClassUsages classUsages = entry.getValue();
+            if (!classUsages.isEmpty() || withInheritableMembers && !classUsages.getInheritableMembers().isEmpty())
+                classes.put(entry.getKey(), classUsages);
+        }
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream classesBytes = new ByteArrayOutputStream();
+        int[] directory = new int[classes.size() * 3];
+        int i = 0;
+        for (Map.Entry<String, ClassUsages> entry : classes.entrySet()) {
+            int offset = classesBytes.size();
+            writeClass(classesBytes, entry.getValue(), strings);
+            directory[i++] = strings.indexOf(entry.getKey());
+            directory[i++] = offset;
+            directory[i++] = classesBytes.size() - offset;
+        }
+        ByteArrayOutputStream stringsBytes = new ByteArrayOutputStream();
+        List<Integer> stringOffsets = strings.writeTo(stringsBytes);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stringOffsets.size());
+            out.writeInt(classes.size());
+            out.writeInt(stringsBytes.size());
+            for (int offset : stringOffsets) {
+                out.writeInt(offset);
+            }
+            for (int value : directory) {
+                out.writeInt(value);
+            }
+            stringsBytes.writeTo(out);
+            classesBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeClass(OutputStream out, ClassUsages classUsages, StringTable strings) throws IOException {
+        Map<String, Map<MemberInternal, Set<Usage>>> members = classUsages.getUsages();
+        writeVarInt(out, members.size());
+        for (Map.Entry<String, Map<MemberInternal, Set<Usage>>> member : members.entrySet()) {
+            writeVarInt(out, strings.indexOf(member.getKey()));
+            writeVarInt(out, member.getValue().size());
+            for (Map.Entry<MemberInternal, Set<Usage>> use : member.getValue().entrySet()) {
+                writeVarInt(out, strings.indexOf(use.getKey().getClassName()));
+                writeVarInt(out, strings.indexOf(use.getKey().getMemberName()));
+                writeVarInt(out, use.getValue().size());
+                for (Usage usage : use.getValue()) {
+                    writeVarInt(out, usage.getUseKind().ordinal());
+                    writeVarInt(out, usage.getFileName() == null ? 0 : strings.indexOf(usage.getFileName()) + 1);
+                    writeVarInt(out, (usage.getLineNumber() << 1) ^ (usage.getLineNumber() >> 31));
+                }
+            }
+        }
+        Set<String> inheritableMembers = classUsages.getInheritableMembers();
+        writeVarInt(out, inheritableMembers.size());
+        for (String member : inheritableMembers) {
+            writeVarInt(out, strings.indexOf(member));
+        }
+    }
+
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Returns {@code true} if the specified file contains a report of the first version.
+     */
+    static boolean isVersion1(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            // The version was written as a varint right after the magic
+            return in.readInt() == MAGIC && in.read() == VERSION_1;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads all classes of a report of the first version to the specified usages.
+     * Its string table and directory are written as varints one after another.
+     */
+    static void readVersion1(ByteBuffer in, Usages usages) throws IOException {
+        try {
+            if (in.getInt() != MAGIC || readVarInt(in) != VERSION_1)
+                throw new IOException("Not a binary usages report of the first version");
+            String[] strings = new String[readVarInt(in)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.get(bytes);
+                strings[i] = new String(bytes, Fmt.CHARSET);
+            }
+            StringSource stringSource = index -> {
+                if (index < 0 || index >= strings.length)
+                    throw new IOException("Invalid string index: " + index);
+                return strings[index];
+            };
+            String[] classNames = new String[readVarInt(in)];
+            for (int i = 0; i < classNames.length; i++) {
+                classNames[i] = stringSource.get(readVarInt(in));
+                readVarInt(in); // offset
+                readVarInt(in); // length
+            }
+            // Classes are written in the directory order one after another
+            for (String className : classNames) {
+                usages.getCancellation().checkCancelled();
+                readClass(in, stringSource, usages.getUsagesForClass(className), usages.getCache());
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted usages report", e);
+        }
+    }
+
+    private static void readClass(ByteBuffer in, StringSource strings, ClassUsages classUsages, Cache cache)
+        throws IOException
+    {
+        UseKind[] useKinds = UseKind.values();
+        for (int members = readVarInt(in); members > 0; members--) {
+            String member = strings.get(readVarInt(in));
+            classUsages.getMemberUsages(member);
+            for (int uses = readVarInt(in); uses > 0; uses--) {
+                MemberInternal usedFrom = cache.resolveMember(strings.get(readVarInt(in)), strings.get(readVarInt(in)));
+                for (int count = readVarInt(in); count > 0; count--) {
+                    int useKind = readVarInt(in);
+                    if (useKind < 0 || useKind >= useKinds.length)
+                        throw new IOException("Invalid use kind: " + useKind);
+                    int fileName = readVarInt(in);
+                    int line = readVarInt(in);
+                    classUsages.addMemberUsage(member, usedFrom, new Usage(useKinds[useKind],
+                        fileName == 0 ? null : strings.get(fileName - 1), (line >>> 1) ^ -(line & 1)));
+                }
+            }
+        }
+        for (int members = readVarInt(in); members > 0; members--) {
+            classUsages.addInheritableMember(strings.get(readVarInt(in)));
+        }
+    }
+
+    private interface StringSource {
+        String get(int index) throws IOException;
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Random access reader of a binary report. Instances of this class cannot be used concurrently.
+     */
+    static class Reader {
+        private final ByteBuffer buffer;
+        private final int classCount;
+        private final int stringOffsetsPosition;
+        private final int directoryPosition;
+        private final int stringsPosition;
+        private final int classesPosition;
+        private final String[] strings; // decoded lazily
+        private byte[] bytes = new byte[64];
+
+        Reader(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not a binary usages report");
+            int version = buffer.getInt(4);
+            if (version != VERSION)
+                throw new IOException("Unsupported version of usages report: " + version);
+            int stringCount = buffer.getInt(8);
+            classCount = buffer.getInt(12);
+            int stringsLength = buffer.getInt(16);
+            long end = HEADER_SIZE + 4L * stringCount + (long) DIRECTORY_ENTRY_SIZE * classCount + stringsLength;
+            if (stringCount < 0 || classCount < 0 || stringsLength < 0 || end > buffer.limit())
+                throw new IOException("Corrupted usages report header");
+            stringOffsetsPosition = HEADER_SIZE;
+            directoryPosition = stringOffsetsPosition + 4 * stringCount;
+            stringsPosition = directoryPosition + DIRECTORY_ENTRY_SIZE * classCount;
+            classesPosition = stringsPosition + stringsLength;
+            strings = new String[stringCount];
+        }
+
+        /**
+         * Maps the specified report file to memory, only the accessed pages of the file are actually read.
+         */
+        static Reader open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        int getClassCount() {
+            return classCount;
+        }
+
+        String getClassName(int index) throws IOException {
+            return string(buffer.getInt(directoryPosition + DIRECTORY_ENTRY_SIZE * index));
+        }
+
+        /**
+         * Returns index of the first class which name is not less than the specified one.
+         */
+        int findClass(String className) throws IOException {
+            int low = 0;
+            int high = classCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getClassName(mid).compareTo(className) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Reads all classes of the report to the specified usages.
+         */
+        void readAll(Usages usages) throws IOException {
+            for (int i = 0; i < classCount; i++) {
+                usages.getCancellation().checkCancelled();
+                String className = getClassName(i);
+                readClass(i, usages.getUsagesForClass(className), usages.getCache());
+            }
+        }
+
+        /**
+         * Reads classes which names start with the specified prefix and are accepted by the specified filter.
+         * Classes which have already been read to the usages are skipped.
+         */
+        void readClasses(String prefix, Predicate<String> filter, Usages usages) throws IOException {
+            for (int i = findClass(prefix); i < classCount; i++) {
+                usages.getCancellation().checkCancelled();
+                String className = getClassName(i);
+                if (!className.startsWith(prefix))
+                    break;
+                if (filter.test(className) && usages.getUsages().get(className) == null)
+                    readClass(i, usages.getUsagesForClass(className), usages.getCache());
+            }
+        }
+
+        void readClass(int index, ClassUsages classUsages, Cache cache) throws IOException {
+            int entry = directoryPosition + DIRECTORY_ENTRY_SIZE * index;
+            int offset = buffer.getInt(entry + 4);
+            int length = buffer.getInt(entry + 8);
+            if (offset < 0 || length < 0 || offset > buffer.limit() - classesPosition - length)
+                throw new IOException("Corrupted usages report directory");
+            ByteBuffer in = buffer.duplicate();
+            in.limit(classesPosition + offset + length);
+            in.position(classesPosition + offset);
+            try {
+                BinaryReport.readClass(in, this::string, classUsages, cache);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Unexpected end of class " + classUsages.getClassName(), e);
+            }
+        }
+
+        private String string(int index) throws IOException {
+            if (index < 0 || index >= strings.length)
+                throw new IOException("Invalid string index: " + index);
+            String s = strings[index];
+            if (s == null) {
+                ByteBuffer in = buffer.duplicate();
+                in.limit(classesPosition);
+                int length;
+                try {
+                    in.position(stringsPosition + buffer.getInt(stringOffsetsPosition + 4 * index));
+                    length = readVarInt(in);
+                    if (length > bytes.length)
+                        bytes = new byte[Math.max(length, bytes.length * 2)];
+                    in.get(bytes, 0, length);
+                } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                    throw new IOException("Invalid string " + index, e);
+                }
+                strings[index] = s = new String(bytes, 0, length, Fmt.CHARSET);
+            }
+            return s;
+        }
+    }
+
+    private static class StringTable {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int indexOf(String s) {
+            Integer index = indices.get(s);
+            if (index == null) {
+                indices.put(s, index = strings.size());
+                strings.add(s);
+            }
+            return index;
+        }
+
+        /**
+         * Writes all strings and returns their offsets.
+         */
+        List<Integer> writeTo(ByteArrayOutputStream out) throws IOException {
+            List<Integer> offsets = new ArrayList<>(strings.size());
+            for (String s : strings) {
+                offsets.add(out.size());
+                byte[] bytes = s.getBytes(Fmt.CHARSET);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            return offsets;
+        }
+    }
+}
@@ -19,12 +19,22 @@ package com.devexperts.usages.analyzer;
 
 import com.devexperts.usages.analyzer.internal.MemberInternal;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Cache {
+    private static final int INITIAL_BYTES_CAPACITY = 256;
+
     private Map<String, String> strings = new HashMap<String, String>();
-    private Map<MemberInternal, MemberInternal> members = new HashMap<MemberInternal, MemberInternal>();
+    // Members are looked up by class and member names, so that no key is created for cached members
+    private Map<String, Map<String, MemberInternal>> members = new HashMap<String, Map<String, MemberInternal>>();
+
+    // Open addressing table of strings by their UTF-8 bytes, it is used to resolve strings without decoding them
+    private byte[][] bytesKeys = new byte[INITIAL_BYTES_CAPACITY][];
+    private int[] bytesHashes = new int[INITIAL_BYTES_CAPACITY];
+    private String[] bytesValues = new String[INITIAL_BYTES_CAPACITY];
+    private int bytesCount;
 
     public String resolveString(String s) {
         String result = strings.get(s);
@@ -34,12 +44,71 @@ public class Cache {
         return s;
     }
 
+    /**
+     * Resolves the string which is encoded in UTF-8 by the specified range of bytes,
+     * the string is decoded only if it has not been resolved from bytes yet.
+     */
+    public String resolveString(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int mask = bytesKeys.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for (byte[] key; (key = bytesKeys[index]) != null; index = (index + 1) & mask) {
+            if (bytesHashes[index] == hash && equalBytes(key, bytes, offset, length))
+                return bytesValues[index];
+        }
+        byte[] key = Arrays.copyOfRange(bytes, offset, offset + length);
+        String result = resolveString(new String(key, Fmt.CHARSET));
+        bytesKeys[index] = key;
+        bytesHashes[index] = hash;
+        bytesValues[index] = result;
+        if (++bytesCount * 2 > bytesKeys.length)
+            rehashBytes();
+        return result;
+    }
+
     public MemberInternal resolveMember(String className, String memberName) {
-        MemberInternal m = new MemberInternal(resolveString(className), resolveString(memberName));
-        MemberInternal result = members.get(m);
+        Map<String, MemberInternal> classMembers = members.get(className);
+        if (classMembers == null)
+            members.put(resolveString(className), classMembers = new HashMap<String, MemberInternal>());
+        MemberInternal result = classMembers.get(memberName);
         if (result != null)
             return result;
-        members.put(m, m);
+        MemberInternal m = new MemberInternal(resolveString(className), resolveString(memberName));
+        classMembers.put(m.getMemberName(), m);
         return m;
     }
+
+    private static boolean equalBytes(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehashBytes() {
+        byte[][] oldKeys = bytesKeys;
+        int[] oldHashes = bytesHashes;
+        String[] oldValues = bytesValues;
+        bytesKeys = new byte[2 * oldKeys.length][];
+        bytesHashes = new int[2 * oldKeys.length];
+        bytesValues = new String[2 * oldKeys.length];
+        int mask = bytesKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int index = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+            while (bytesKeys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            bytesKeys[index] = oldKeys[i];
+            bytesHashes[index] = oldHashes[i];
+            bytesValues[index] = oldValues[i];
+        }
+    }
 }
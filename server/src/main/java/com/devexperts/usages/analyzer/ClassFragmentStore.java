@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer;
+
+import com.devexperts.usages.analyzer.concurrent.ConcurrentOutputStream;
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper;
+import com.devexperts.usages.server.artifacts.ArtifactStore;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores usages found in class files by hashes of their contents, so that equal class files
+ * of different artifacts (e.g. of consecutive versions) are analyzed only once.
+ * Every fragment contains the name and the source file of the analyzed class and
+ * the {@link BinaryReport binary report} of usages found in it.
+ * Fragment files are kept in an {@link ArtifactStore}, so that their total size is bounded
+ * and the least recently used fragments (including fragments of previous versions) are deleted.
+ */
+class ClassFragmentStore {
+    private static final Logger logger = Logger.getLogger(ClassFragmentStore.class);
+
+    // Should be incremented when the analysis of class files is changed
+    private static final int VERSION = 1;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final ArtifactStore files;
+    private final File directory;
+
+    ClassFragmentStore(ArtifactStore files) {
+        this.files = files;
+        this.directory = new File(files.getDirectory(), "v" + VERSION);
+    }
+
+    static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        byte[] hash = digest.digest(bytes);
+        char[] chars = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Adds usages from the fragment with the specified hash to the usages.
+     * Returns {@code false} if there is no fragment of the specified class with this hash.
+     */
+    boolean load(String hash, String className, Usages usages) {
+        File file = getFile(hash);
+        if (!file.exists())
+            return false;
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (!className.equals(in.readUTF()))
+                return false;
+            String sourceFile = in.readBoolean() ? in.readUTF() : null;
+            int offset = bytes.length - in.available();
+            // Usages are read to a separate model at first, so that a corrupted fragment is not added partially
+            Cache cache = usages.getCache();
+            Usages fragment = new Usages(cache, new SimpleUsagesKeeper(cache), new Config(), usages.getCancellation());
+            new BinaryReport.Reader(ByteBuffer.wrap(bytes, offset, bytes.length - offset).slice()).readAll(fragment);
+            usages.fetchFrom(fragment, className, sourceFile);
+            files.touch(file);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot read class fragment " + file + ", it will be replaced", e);
+            if (!file.delete())
+                logger.warn(file + " has not been deleted");
+            return false;
+        }
+    }
+
+    /**
+     * Stores usages found in the class file with the specified hash.
+     */
+    void store(String hash, String className, Usages fragment, String sourceFile) {
+        File file = getFile(hash);
+        file.getParentFile().mkdirs();
+        try {
+            // The header is prepared in memory, so that the file is not opened if it cannot be encoded
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerOut = new DataOutputStream(header);
+            headerOut.writeUTF(className);
+            headerOut.writeBoolean(sourceFile != null);
+            if (sourceFile != null)
+                headerOut.writeUTF(sourceFile);
+            // The stream is closed by BinaryReport.write, closing it again is a no-op
+            try (ConcurrentOutputStream out = new ConcurrentOutputStream(file)) {
+                header.writeTo(out);
+                BinaryReport.write(fragment, out, true);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write class fragment " + file, e);
+            return;
+        }
+        files.add(file);
+    }
+
+    private File getFile(String hash) {
+        // Fragments are spread over subdirectories to keep directories small
+        return new File(new File(directory, hash.substring(0, 2)), hash);
+    }
+}
@@ -19,10 +19,8 @@ package com.devexperts.usages.analyzer;
 
 import com.devexperts.usages.analyzer.internal.MemberInternal;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -232,56 +230,7 @@ public class ClassUsages {
     }
 
     public void readFromStream(InputStream inStream) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(inStream, Fmt.CHARSET));
-        boolean inheritableMember = false;
-        String useFor = null;
-        Map<MemberInternal, Set<Usage>> use = null;
-        String className = null;
-        String line;
-        while ((line = in.readLine()) != null) {
-            if (line.length() == 0 || line.startsWith(Fmt.COMMENT_PREFIX)) {
-                continue;
-            }
-            if (line.startsWith(Fmt.MEMBER_PREFIX)) {
-                if (use == null || className == null) {
-                    throw new IOException("Invalid format -- header lines expected");
-                }
-                String rest = line.substring(Fmt.MEMBER_PREFIX.length());
-                int i = rest.indexOf(Fmt.USE_KINDS_PREFIX);
-                if (i < 0) {
-                    throw new IOException("Invalid format -- missing member use kinds");
-                }
-                String memberName = rest.substring(0, i);
-                Set<Usage> useKinds = Usage.parseUsages(rest.substring(i + Fmt.USE_KINDS_PREFIX.length()));
-                MemberInternal m = cache.resolveMember(className, memberName);
-                getUsages(use, m).addAll(useKinds);
-            } else if (line.startsWith(Fmt.CLASS_PREFIX)) {
-                if (use == null) {
-                    throw new IOException("Invalid format -- header lines expected");
-                }
-                inheritableMember = false;
-                String rest = line.substring(Fmt.CLASS_PREFIX.length());
-                int i = rest.indexOf(Fmt.USE_KINDS_PREFIX);
-                if (i < 0) {
-                    className = rest;
-                } else {
-                    className = rest.substring(0, i);
-                    Set<Usage> useKinds =
-                        Usage.parseUsages(rest.substring(i + Fmt.USE_KINDS_PREFIX.length()));
-                    getUsages(use, cache.resolveMember(className, MemberInternal.CLASS_MEMBER_NAME)).addAll(useKinds);
-                }
-            } else {
-                if (inheritableMember) {
-                    addInheritableMember(useFor);
-                }
-                inheritableMember = true;
-                useFor = line;
-                use = getMemberUsages(line);
-            }
-        }
-        if (inheritableMember) {
-            addInheritableMember(useFor);
-        }
+        new UsagesReportParser(cache).parse(inStream, this);
     }
 
     public void writeToStream(OutputStream outStream) {
@@ -154,6 +154,7 @@ class ClassUsagesAnalyzer extends ClassVisitor {
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        usages.getCancellation().checkCancelled();
         String methodMemberName = MemberInternal.methodMemberName(name, Type.getType(desc));
         MemberInternal usedFrom = cache.resolveMember(className, methodMemberName);
         markTypeUse(Type.getType(desc), usedFrom, UseKind.UNKNOWN); // will be replaced by RETURN/ARGUMENT
@@ -25,6 +25,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Usage {
+    private static final Pattern USAGE_PATTERN = Pattern.compile("(\\w+)\\(([^():]*):(-?\\d+)\\)");
+
     private UseKind useKind;
     private String fileName;
     private int lineNumber;
@@ -95,8 +97,7 @@ public class Usage {
         Set<Usage> usages = new HashSet<>();
         StringTokenizer st = new StringTokenizer(s, Fmt.USE_KINDS_SEPARATOR);
         while (st.hasMoreTokens()) {
-            Pattern pattern = Pattern.compile("(\\w+)\\(([^():]*):(-?\\d+)\\)");
-            Matcher matcher = pattern.matcher(st.nextToken());
+            Matcher matcher = USAGE_PATTERN.matcher(st.nextToken());
             if (matcher.matches()) {
                 UseKind useKind = UseKind.valueOf(matcher.group(1));
                 String fileName = matcher.group(2);
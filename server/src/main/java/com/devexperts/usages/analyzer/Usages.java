@@ -17,11 +17,14 @@
  */
 package com.devexperts.usages.analyzer;
 
+import com.devexperts.usages.analyzer.concurrent.Cancellation;
 import com.devexperts.usages.analyzer.internal.MemberInternal;
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper;
 import com.devexperts.usages.analyzer.tune.UsagesKeeper;
 import org.apache.log4j.Logger;
 import org.objectweb.asm.ClassReader;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -40,19 +43,33 @@ class Usages {
     private final UsagesKeeper usages;
     private final Map<String, Set<String>> descendants = new HashMap<>();
     private final Config config;
+    private final Cancellation cancellation;
     private final Map<String, String> filesOfClasses = new HashMap<>();
     private boolean needPostprocessing = true;
+    private ClassFragmentStore fragmentStore;
 
     public Usages(Cache cache, UsagesKeeper usages, Config config) {
+        this(cache, usages, config, Cancellation.NEVER);
+    }
+
+    public Usages(Cache cache, UsagesKeeper usages, Config config, Cancellation cancellation) {
         this.cache = cache;
         this.usages = usages;
         this.config = config;
+        this.cancellation = cancellation;
     }
 
     public void putFileOfClass(String className, String fileName) {
         filesOfClasses.put(className, fileName);
     }
 
+    /**
+     * Sets the store of usages found in class files, equal class files are analyzed only once with it.
+     */
+    void setFragmentStore(ClassFragmentStore fragmentStore) {
+        this.fragmentStore = fragmentStore;
+    }
+
     public void setNeedPostprocessing(boolean needPostprocessing) {
         this.needPostprocessing = needPostprocessing;
     }
@@ -61,6 +78,10 @@ class Usages {
         return cache;
     }
 
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
     private Set<String> getDescendantsRec(String className) {
         Set<String> ds = descendants.get(className);
         if (ds != null) {
@@ -95,6 +116,7 @@ class Usages {
             logger.info("Analyzing overrides");
             // build descendants map recursively with memorization
             for (Map.Entry<String, ClassUsages> entry : usageEntries) {
+                cancellation.checkCancelled();
                 String className = entry.getKey();
                 ClassUsages cu = entry.getValue();
                 Set<String> classMembers = cu.getInheritableMembers();
@@ -203,12 +225,54 @@ class Usages {
     }
 
     public void parseClass(String className, InputStream inStream) throws IOException {
-        ClassReader cr = new ClassReader(inStream);
+        if (fragmentStore == null) {
+            parseClass(className, new ClassReader(inStream), this);
+            return;
+        }
+        byte[] bytes = readBytes(inStream);
+        String hash = ClassFragmentStore.hash(bytes);
+        if (fragmentStore.load(hash, className, this))
+            return;
+        // Usages of the class are collected separately and are stored for other artifacts with the same class
+        Usages fragment = new Usages(cache, new SimpleUsagesKeeper(cache), config, cancellation);
+        if (parseClass(className, new ClassReader(bytes), fragment)) {
+            String sourceFile = fragment.filesOfClasses.get(className);
+            fragmentStore.store(hash, className, fragment, sourceFile);
+            fetchFrom(fragment, className, sourceFile);
+        }
+    }
+
+    private static boolean parseClass(String className, ClassReader cr, Usages usages) {
         if (!className.equals(cr.getClassName().replace('/', '.'))) {
             logger.info("Unexpected class name: " + cr.getClassName() + " for class " + className);
-        } else {
-            cr.accept(new ClassUsagesAnalyzer(this, className, config), ClassReader.SKIP_FRAMES);
+            return false;
+        }
+        cr.accept(new ClassUsagesAnalyzer(usages, className, usages.config), ClassReader.SKIP_FRAMES);
+        return true;
+    }
+
+    /**
+     * Adds usages found in the specified class to these usages, the fragment cannot be used after that.
+     */
+    void fetchFrom(Usages fragment, String className, String sourceFile) {
+        if (sourceFile != null)
+            putFileOfClass(className, sourceFile);
+        for (Map.Entry<String, ClassUsages> entry : fragment.usages.allClassUsages()) {
+            ClassUsages classUsages = getUsagesForClass(entry.getKey());
+            classUsages.fetchFrom(entry.getValue());
+            for (String member : entry.getValue().getInheritableMembers()) {
+                classUsages.addInheritableMember(member);
+            }
         }
     }
 
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer;
+
+import com.devexperts.usages.analyzer.internal.MemberInternal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parser of usages reports in the text format which is written by {@link ClassUsages#writeToStream}.
+ * Reports are parsed directly from their UTF-8 bytes, class, member and file names are resolved
+ * by the {@link Cache} from bytes, so that strings are created only for names which are not cached yet.
+ * The parser reuses its buffer, it should not be used concurrently.
+ */
+class UsagesReportParser {
+    private static final byte[][] USE_KIND_NAMES = new byte[UseKind.values().length][];
+
+    static {
+        for (UseKind useKind : UseKind.values()) {
+            USE_KIND_NAMES[useKind.ordinal()] = useKind.name().getBytes(Fmt.CHARSET);
+        }
+    }
+
+    private final Cache cache;
+    private byte[] buffer = new byte[8192];
+    private byte[] bytes;
+    private ClassUsages classUsages;
+
+    UsagesReportParser(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Reads the report from the stream and adds its usages to the specified class usages.
+     */
+    void parse(InputStream in, ClassUsages classUsages) throws IOException {
+        int length = 0;
+        int n;
+        while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        parse(buffer, 0, length, classUsages);
+    }
+
+    /**
+     * Adds usages from the report in the remaining bytes of the buffer to the specified class usages.
+     */
+    void parse(ByteBuffer buf, ClassUsages classUsages) throws IOException {
+        if (buf.hasArray()) {
+            parse(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), classUsages);
+        } else {
+            byte[] copy = new byte[buf.remaining()];
+            buf.duplicate().get(copy);
+            parse(copy, 0, copy.length, classUsages);
+        }
+    }
+
+    private void parse(byte[] bytes, int offset, int length, ClassUsages classUsages) throws IOException {
+        this.bytes = bytes;
+        this.classUsages = classUsages;
+        try {
+            parseLines(offset, offset + length);
+        } finally {
+            this.bytes = null;
+            this.classUsages = null;
+        }
+    }
+
+    private void parseLines(int position, int limit) throws IOException {
+        String useFor = null;
+        Map<MemberInternal, Set<Usage>> use = null;
+        String className = null;
+        while (position < limit) {
+            int end = lineEnd(position, limit);
+            if (end == position || bytes[position] == '#') {
+                // Skip empty lines and comments
+            } else if (startsWith(position, end, Fmt.MEMBER_PREFIX)) {
+                if (use == null || className == null)
+                    throw new IOException("Invalid format -- header lines expected");
+                int start = position + Fmt.MEMBER_PREFIX.length();
+                int i = indexOfUseKinds(start, end);
+                if (i < 0)
+                    throw new IOException("Invalid format -- missing member use kinds");
+                MemberInternal m = cache.resolveMember(className, cache.resolveString(bytes, start, i - start));
+                parseUsages(i + Fmt.USE_KINDS_PREFIX.length(), end, getUsages(use, m));
+            } else if (startsWith(position, end, Fmt.CLASS_PREFIX)) {
+                if (use == null)
+                    throw new IOException("Invalid format -- header lines expected");
+                useFor = null;
+                int start = position + Fmt.CLASS_PREFIX.length();
+                int i = indexOfUseKinds(start, end);
+                if (i < 0) {
+                    className = cache.resolveString(bytes, start, end - start);
+                } else {
+                    className = cache.resolveString(bytes, start, i - start);
+                    MemberInternal m = cache.resolveMember(className, MemberInternal.CLASS_MEMBER_NAME);
+                    parseUsages(i + Fmt.USE_KINDS_PREFIX.length(), end, getUsages(use, m));
+                }
+            } else {
+                // Members which are not followed by usages are inheritable ones
+                if (useFor != null)
+                    classUsages.addInheritableMember(useFor);
+                useFor = cache.resolveString(bytes, position, end - position);
+                use = classUsages.getMemberUsages(useFor);
+            }
+            position = nextLine(end, limit);
+        }
+        if (useFor != null)
+            classUsages.addInheritableMember(useFor);
+    }
+
+    /**
+     * Parses comma-separated usages in the {@code KIND(fileName:lineNumber)} format,
+     * malformed usages are skipped.
+     */
+    private void parseUsages(int position, int limit, Set<Usage> usages) throws IOException {
+        while (position < limit) {
+            int end = position;
+            while (end < limit && bytes[end] != ',') {
+                end++;
+            }
+            if (end > position)
+                parseUsage(position, end, usages);
+            position = end + 1;
+        }
+    }
+
+    private void parseUsage(int position, int limit, Set<Usage> usages) throws IOException {
+        int open = position;
+        while (open < limit && isWordByte(bytes[open])) {
+            open++;
+        }
+        if (open == position || open == limit || bytes[open] != '(' || bytes[limit - 1] != ')')
+            return;
+        // The file name is followed by the last colon, it cannot contain colons and parentheses
+        int colon = limit - 2;
+        while (colon > open && bytes[colon] != ':') {
+            colon--;
+        }
+        if (colon == open)
+            return;
+        for (int i = open + 1; i < colon; i++) {
+            if (bytes[i] == '(' || bytes[i] == ')' || bytes[i] == ':')
+                return;
+        }
+        int i = colon + 1;
+        boolean negative = i < limit - 1 && bytes[i] == '-';
+        if (negative)
+            i++;
+        if (i == limit - 1)
+            return;
+        long lineNumber = 0;
+        for (; i < limit - 1; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                return;
+            lineNumber = 10 * lineNumber + (bytes[i] - '0');
+            if (lineNumber > (long) Integer.MAX_VALUE + 1)
+                return;
+        }
+        if (negative)
+            lineNumber = -lineNumber;
+        if (lineNumber > Integer.MAX_VALUE)
+            return;
+        String fileName = cache.resolveString(bytes, open + 1, colon - open - 1);
+        usages.add(new Usage(parseUseKind(position, open), fileName, (int) lineNumber));
+    }
+
+    private UseKind parseUseKind(int position, int limit) throws IOException {
+        for (UseKind useKind : UseKind.values()) {
+            byte[] name = USE_KIND_NAMES[useKind.ordinal()];
+            if (name.length == limit - position && startsWith(position, limit, name))
+                return useKind;
+        }
+        throw new IOException("Invalid format -- unknown use kind " +
+            new String(bytes, position, limit - position, Fmt.CHARSET));
+    }
+
+    private int indexOfUseKinds(int position, int limit) {
+        for (int i = position; i <= limit - Fmt.USE_KINDS_PREFIX.length(); i++) {
+            if (startsWith(i, limit, Fmt.USE_KINDS_PREFIX))
+                return i;
+        }
+        return -1;
+    }
+
+    private int lineEnd(int position, int limit) {
+        while (position < limit && bytes[position] != '\n' && bytes[position] != '\r') {
+            position++;
+        }
+        return position;
+    }
+
+    private int nextLine(int end, int limit) {
+        if (end < limit && bytes[end] == '\r')
+            end++;
+        if (end < limit && bytes[end] == '\n')
+            end++;
+        return end;
+    }
+
+    private boolean startsWith(int position, int limit, String prefix) {
+        if (limit - position < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[position + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(int position, int limit, byte[] prefix) {
+        if (limit - position < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[position + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_';
+    }
+
+    private static Set<Usage> getUsages(Map<MemberInternal, Set<Usage>> use, MemberInternal m) {
+        Set<Usage> usages = use.get(m);
+        if (usages == null)
+            use.put(m, usages = new HashSet<>());
+        return usages;
+    }
+}
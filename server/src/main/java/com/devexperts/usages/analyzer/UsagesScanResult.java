@@ -17,21 +17,33 @@
  */
 package com.devexperts.usages.analyzer;
 
+import com.devexperts.usages.analyzer.concurrent.Cancellation;
 import com.devexperts.usages.analyzer.concurrent.ConcurrentOutputStream;
 import com.devexperts.usages.analyzer.internal.MemberInternal;
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper;
 import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class UsagesScanResult {
     private static final Logger logger = Logger.getLogger(UsagesScanResult.class);
 
+    // Rough estimations of heap sizes of decoded objects including their map entries
+    private static final int CLASS_SIZE = 200;
+    private static final int MEMBER_SIZE = 120;
+    private static final int USE_SIZE = 100;
+    private static final int USAGE_SIZE = 80;
+    private static final int STRING_SIZE = 40;
+
     private final Usages usages;
 
     public UsagesScanResult(Usages usages) {
@@ -50,6 +62,24 @@ public class UsagesScanResult {
         return clone;
     }
 
+    /**
+     * Passes every usage of this result to the specified visitor.
+     * Members are created on the fly and are not resolved via the shared {@link Cache}.
+     */
+    public void forEachUsage(UsageVisitor visitor) {
+        for (Map.Entry<String, ClassUsages> entry : usages.getUsages().allClassUsages()) {
+            String className = entry.getKey();
+            for (Map.Entry<String, Map<MemberInternal, Set<Usage>>> use : entry.getValue().getUsages().entrySet()) {
+                MemberInternal member = new MemberInternal(className, use.getKey());
+                for (Map.Entry<MemberInternal, Set<Usage>> useEntry : use.getValue().entrySet()) {
+                    for (Usage usage : useEntry.getValue()) {
+                        visitor.visitUsage(member, useEntry.getKey(), usage);
+                    }
+                }
+            }
+        }
+    }
+
     public void writeReport(File zipFile) throws IOException {
         write(zipFile, false, false);
     }
@@ -74,6 +104,50 @@ public class UsagesScanResult {
         logger.info("Completed");
     }
 
+    /**
+     * Writes this result in the {@link BinaryReport binary format}, an empty result is written too,
+     * so the report can be used as a cache entry.
+     */
+    public void writeBinaryReportAtomically(File file) throws IOException {
+        BinaryReport.write(usages, new ConcurrentOutputStream(file));
+    }
+
+    /**
+     * Reads a result written by {@link #writeBinaryReportAtomically(File)}.
+     *
+     * @throws java.util.concurrent.CancellationException if the specified cancellation is cancelled
+     */
+    public static UsagesScanResult readBinaryReport(File file, Cancellation cancellation) throws IOException {
+        Cache cache = new Cache();
+        Usages usages = new Usages(cache, new SimpleUsagesKeeper(cache), new Config(), cancellation);
+        usages.setNeedPostprocessing(false);
+        if (BinaryReport.isVersion1(file)) {
+            // The file is not mapped, so that it can be replaced by the converted report
+            BinaryReport.readVersion1(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), usages);
+        } else {
+            BinaryReport.Reader.open(file).readAll(usages);
+        }
+        return new UsagesScanResult(usages);
+    }
+
+    /**
+     * Returns estimated heap size of this result in bytes.
+     */
+    public long estimateHeapSize() {
+        long size = 0;
+        for (Map.Entry<String, ClassUsages> entry : usages.getUsages().allClassUsages()) {
+            size += CLASS_SIZE + STRING_SIZE + 2 * entry.getKey().length();
+            for (Map.Entry<String, Map<MemberInternal, Set<Usage>>> use : entry.getValue().getUsages().entrySet()) {
+                size += MEMBER_SIZE + STRING_SIZE + 2 * use.getKey().length();
+                for (Map.Entry<MemberInternal, Set<Usage>> useEntry : use.getValue().entrySet()) {
+                    size += USE_SIZE + STRING_SIZE + 2 * useEntry.getKey().getMemberName().length() +
+                        USAGE_SIZE * useEntry.getValue().size();
+                }
+            }
+        }
+        return size;
+    }
+
     private boolean isEmpty() {
         for (Map.Entry<String, ClassUsages> entry : usages.getUsages().allClassUsages()) {
             if (!entry.getValue().isEmpty())
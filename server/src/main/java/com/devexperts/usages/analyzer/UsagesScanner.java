@@ -17,6 +17,7 @@
  */
 package com.devexperts.usages.analyzer;
 
+import com.devexperts.usages.analyzer.concurrent.Cancellation;
 import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper;
 import com.devexperts.usages.analyzer.tune.UsagesKeeper;
 import com.devexperts.usages.analyzer.walker.walkers.Walker;
@@ -40,8 +41,21 @@ public class UsagesScanner {
     private final Walker<?> walker;
 
     public UsagesScanner(Walker walker) {
+        this(walker, Cancellation.NEVER);
+    }
+
+    public UsagesScanner(Walker walker, Cancellation cancellation) {
         this.walker = walker;
-        this.usages = new Usages(cache, new SimpleUsagesKeeper(cache), config);
+        this.usages = new Usages(cache, new SimpleUsagesKeeper(cache), config, cancellation);
+    }
+
+    /**
+     * Creates a scanner which stores usages of every analyzed class file to the specified store
+     * and takes them from it for equal class files.
+     */
+    UsagesScanner(Walker walker, Cancellation cancellation, ClassFragmentStore fragmentStore) {
+        this(walker, cancellation);
+        usages.setFragmentStore(fragmentStore);
     }
 
     public UsagesScanner(Walker walker, UsagesKeeper usagesKeeper) {
@@ -68,10 +82,12 @@ public class UsagesScanner {
     }
 
     private class Usages4UsagesProcessor implements Processor {
+        private final UsagesReportParser parser = new UsagesReportParser(cache);
+
         @Override
         public void process(String className, InputStream in) throws IOException {
             usages.setNeedPostprocessing(false);
-            usages.getUsagesForClass(className).readFromStream(in);
+            parser.parse(in, usages.getUsagesForClass(className));
         }
     }
 
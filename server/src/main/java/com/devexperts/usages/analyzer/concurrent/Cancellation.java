@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer.concurrent;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation signal. Long operations (downloading, walking through archives,
+ * analysis of classes) check it regularly and throw {@link CancellationException} as soon as it is cancelled.
+ */
+public interface Cancellation {
+    Cancellation NEVER = () -> false;
+
+    boolean isCancelled();
+
+    /**
+     * Throws {@link CancellationException} if this signal is cancelled.
+     */
+    default void checkCancelled() {
+        if (isCancelled())
+            throw new CancellationException();
+    }
+}
@@ -66,7 +66,8 @@ public class MemberInternal implements Comparable<MemberInternal> {
             return Member.Companion.fromField(className, memberName);
         }
         String mname = memberName.substring(0, i);
-        List<String> params = Arrays.asList(memberName.substring(i + 1, memberName.length() - 1).split(","));
+        String paramsStr = memberName.substring(i + 1, memberName.length() - 1);
+        List<String> params = paramsStr.isEmpty() ? Collections.emptyList() : Arrays.asList(paramsStr.split(","));
         return Member.Companion.fromMethod(className, mname, params);
     }
 
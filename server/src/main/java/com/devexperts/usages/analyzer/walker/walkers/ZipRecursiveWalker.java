@@ -17,6 +17,7 @@
  */
 package com.devexperts.usages.analyzer.walker.walkers;
 
+import com.devexperts.usages.analyzer.concurrent.Cancellation;
 import com.devexperts.usages.analyzer.walker.FileAnalyzer;
 import com.devexperts.usages.analyzer.walker.info.FileInfo;
 import com.devexperts.usages.analyzer.walker.info.PlainFileInfo;
@@ -39,10 +40,18 @@ public class ZipRecursiveWalker<F extends FileInfo> extends DelegatingWalker<Zip
     private static final Logger logger = Logger.getLogger(ZipRecursiveWalker.class);
 
     private final PlainFileInfo rootInfo;
+    private final Cancellation cancellation;
 
-    public ZipRecursiveWalker(PlainFileInfo file, Delegating<? super ZipEntryInfo, ? extends F> delegating) {
+    public ZipRecursiveWalker(PlainFileInfo file, Delegating<? super ZipEntryInfo, ? extends F> delegating,
+        Cancellation cancellation)
+    {
         super(delegating);
         this.rootInfo = file;
+        this.cancellation = cancellation;
+    }
+
+    public ZipRecursiveWalker(PlainFileInfo file, Delegating<? super ZipEntryInfo, ? extends F> delegating) {
+        this(file, delegating, Cancellation.NEVER);
     }
 
     public ZipRecursiveWalker(File file, Delegating<? super ZipEntryInfo, ? extends F> delegating) {
@@ -50,7 +59,16 @@ public class ZipRecursiveWalker<F extends FileInfo> extends DelegatingWalker<Zip
     }
 
     public static ZipRecursiveWalker<ZipEntryInfo> ofFile(File file) {
-        return new ZipRecursiveWalker<>(file, TerminalWalker.<ZipEntryInfo>getDelegating());
+        return ofFile(file, Cancellation.NEVER);
+    }
+
+    /**
+     * Creates walker which stops with {@link java.util.concurrent.CancellationException}
+     * as soon as the specified cancellation is cancelled.
+     */
+    public static ZipRecursiveWalker<ZipEntryInfo> ofFile(File file, Cancellation cancellation) {
+        return new ZipRecursiveWalker<>(new PlainFileInfo(file), TerminalWalker.<ZipEntryInfo>getDelegating(),
+            cancellation);
     }
 
     @Override
@@ -58,6 +76,7 @@ public class ZipRecursiveWalker<F extends FileInfo> extends DelegatingWalker<Zip
         final ZipFile zip = new ZipFile(rootInfo.getPath());
         try {
             for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements(); ) {
+                cancellation.checkCancelled();
                 final ZipEntry ze = en.nextElement();
                 if (ze.isDirectory()) {
                     continue;
@@ -70,7 +89,7 @@ public class ZipRecursiveWalker<F extends FileInfo> extends DelegatingWalker<Zip
 
                     try {
                         Files.copy(zip.getInputStream(ze), temp.toPath());
-                        new ZipRecursiveWalker<F>(temp, delegating)
+                        new ZipRecursiveWalker<F>(new PlainFileInfo(temp), delegating, cancellation)
                             .walk(analyzer);
                     } finally {
                         temp.delete();
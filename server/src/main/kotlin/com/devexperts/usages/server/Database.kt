@@ -26,9 +26,56 @@ import org.jetbrains.exposed.sql.Table
 import org.jetbrains.exposed.sql.transactions.TransactionManager
 import org.jetbrains.exposed.sql.transactions.transaction
 import java.sql.Connection
+import java.util.concurrent.CopyOnWriteArrayList
 
 private val TABLES = arrayOf(Artifacts, ArtifactStatus, Packages, ArtifactPackages, Dependencies, ArtifactSources,
-        Members, Derived, Locations, MemberUsages, MemberStructure);
+        Members, Derived, Locations, MemberUsages, MemberStructure, PendingAnalyses);
+
+private val initListeners = CopyOnWriteArrayList<() -> Unit>()
+
+/**
+ * Registers a listener which is invoked after the database is (re)initialized,
+ * in-memory data which is loaded from the database should be reset by it.
+ */
+fun addDatabaseInitListener(listener: () -> Unit) {
+    initListeners += listener
+}
+
+/**
+ * In-memory data which is loaded from the database on first use and reset on the database initialization.
+ * It should be updated by [ifLoaded] after changes are committed, changes committed before
+ * the data is loaded could be applied twice.
+ */
+class LoadedFromDatabase<T : Any>(private val load: () -> T) {
+    @Volatile
+    private var value: T? = null
+
+    init {
+        addDatabaseInitListener { reset() }
+    }
+
+    fun get(): T {
+        value?.let { return it }
+        synchronized(this) {
+            value?.let { return it }
+            val loaded = load()
+            value = loaded
+            return loaded
+        }
+    }
+
+    /**
+     * Invokes the specified action if the data has been loaded already.
+     */
+    fun ifLoaded(action: (T) -> Unit) = synchronized(this) {
+        value?.let(action)
+    }
+
+    @Synchronized
+    fun reset() {
+        value = null
+    }
+}
 
 fun initDatabase(file: String) {
     initDatabaseByFullUrl("jdbc:h2:file:$file")
@@ -44,6 +91,7 @@ private fun initDatabaseByFullUrl(url: String) {
     Database.connect(url = url, driver = "org.h2.Driver")
     TransactionManager.manager.defaultIsolationLevel = Connection.TRANSACTION_SERIALIZABLE
     transaction { create(*TABLES) }
+    initListeners.forEach { it() }
 }
 
 // == ARTIFACT MANAGER ==
@@ -85,7 +133,7 @@ object Dependencies : Table() {
 
 object Members : Table() {
     val id = integer("id").autoIncrement().primaryKey()
-    val qualifiedName = varchar("qualifiedName", 255)
+    val qualifiedName = varchar("qualifiedName", 255).index()
     val paramTypes = varchar("paramTypes", 512)
     val type = enumeration("type", MemberType::class.java)
 
@@ -112,8 +160,20 @@ object MemberUsages : Table() {
     val locationId = (integer("locationId") references Locations.id).primaryKey()
 }
 
+/**
+ * Durable queue of artifacts which should be analyzed in background, see [AnalysisQueue].
+ */
+object PendingAnalyses : Table() {
+    val artifactId = (integer("artifactId") references Artifacts.id).primaryKey()
+    val attempts = integer("attempts") // number of failed analyses
+}
+
 // == CODE STRUCTURE ==
 
+/**
+ * Class hierarchy index, it is shared by all artifacts and filled during their analysis.
+ * Edges are never removed, so it could contain classes and methods from older versions of artifacts.
+ */
 object Derived : Table() {
     val memberId = (integer("memberId") references Members.id).primaryKey().index() // class or method
     val derivedMemberId = (integer("derivedMemberId") references Members.id).primaryKey() // derived class or method
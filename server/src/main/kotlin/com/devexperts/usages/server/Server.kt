@@ -18,28 +18,61 @@
 package com.devexperts.usages.server
 
 import com.devexperts.logging.Logging
-import com.devexperts.usages.analyzer.Analyzer0
+import com.devexperts.usages.analyzer.concurrent.Cancellation
 import com.devexperts.usages.api.*
+import com.devexperts.usages.server.analyzer.AnalysisQueue
+import com.devexperts.usages.server.analyzer.Analyzer
+import com.devexperts.usages.server.analyzer.BackgroundAnalysisStats
+import com.devexperts.usages.server.analyzer.BackgroundAnalyzer
+import com.devexperts.usages.server.analyzer.MemberUsageQuery
+import com.devexperts.usages.server.analyzer.ScanResultCacheStats
+import com.devexperts.usages.server.analyzer.UsagesManager
 import com.devexperts.usages.server.artifacts.ArtifactManager
+import com.devexperts.usages.server.artifacts.ArtifactMaskMatcher
+import com.devexperts.usages.server.artifacts.ArtifactStore
+import com.devexperts.usages.server.artifacts.ArtifactStoreStats
 import com.devexperts.usages.server.config.Configuration
 import com.devexperts.usages.server.config.readSettings
 import com.devexperts.usages.server.indexer.MavenIndexer
 import com.devexperts.usages.server.indexer.createIndexers
-import org.eclipse.aether.util.version.GenericVersionScheme
+import com.devexperts.usages.server.requests.BatchPlan
+import com.devexperts.usages.server.requests.BatchUsagesLimiter
+import com.devexperts.usages.server.requests.RequestExecutor
+import com.devexperts.usages.server.requests.RequestExecutor.RequestTasks
+import com.devexperts.usages.server.requests.RequestExecutorStats
+import com.devexperts.usages.server.requests.RequestMetrics
+import com.devexperts.usages.server.requests.RequestMetricsStats
+import com.devexperts.usages.server.requests.RequestPhase
+import com.devexperts.usages.server.requests.RequestProgress
+import com.devexperts.usages.server.requests.RequestTimer
+import com.devexperts.usages.server.requests.UsagesResultCache
+import com.devexperts.usages.server.requests.UsagesJobStore
+import com.devexperts.usages.server.requests.UsagesResultCacheStats
+import com.devexperts.usages.server.requests.scheduleAnalyses
 import org.springframework.boot.SpringApplication
 import org.springframework.boot.autoconfigure.SpringBootApplication
+import org.springframework.http.HttpHeaders
 import org.springframework.http.MediaType
+import org.springframework.web.bind.annotation.DeleteMapping
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.PathVariable
 import org.springframework.web.bind.annotation.PostMapping
 import org.springframework.web.bind.annotation.RequestBody
 import org.springframework.web.bind.annotation.RequestHeader
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
 import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.io.File
+import java.util.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletionException
 import java.util.concurrent.Executors
-import java.util.regex.Pattern
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.stream.Collectors
-import java.util.stream.Stream
+import javax.servlet.http.HttpServletResponse
 import kotlin.concurrent.fixedRateTimer
-import kotlin.streams.toList
 
 @SpringBootApplication
 class Application
@@ -47,13 +80,36 @@ class Application
 fun main(args: Array<String>) {
     initDatabase(Configuration.dbFile)
 //    Server.scheduleScan()
+    Server.startBackgroundAnalysis()
     SpringApplication.run(Application::class.java, *args)
 }
 
 private val log = Logging.getLogging(Server::class.java)
 
+private const val MAX_JOB_PAGE_SIZE = 10000
+// Period of background analysis queue checks, artifacts could be queued by another process
+private val BACKGROUND_ANALYSIS_PERIOD = TimeUnit.MINUTES.toMillis(10)
+
 object Server {
     val indexerPool = Executors.newFixedThreadPool(1)
+    val requestExecutor = RequestExecutor("RequestExecutor",
+            Configuration.requestThreads, Configuration.requestParallelism)
+    val resultCache = UsagesResultCache(Configuration.resultCacheSize)
+    val requestMetrics = RequestMetrics(Configuration.slowRequestMillis)
+    val jobs = UsagesJobStore(File(Configuration.jobsDir), Configuration.jobsDiskSize,
+            TimeUnit.MINUTES.toMillis(Configuration.jobTtlMinutes))
+    val backgroundAnalyzer = BackgroundAnalyzer(Configuration.backgroundAnalysisThreads,
+            Configuration.backgroundAnalysisAttempts) { analyzeInBackground(it) }
+
+    /**
+     * Queues artifacts which usages have been read from their cached reports, so that they are stored
+     * to the usages index in background. It is `null` if background analysis is disabled,
+     * in this case such artifacts are stored to the index by requests.
+     */
+    val analyzeLater: ((WithId<Artifact>) -> Unit)? = if (backgroundAnalyzer.threads <= 0) null else { artifact ->
+        AnalysisQueue.enqueue(artifact.id)
+        backgroundAnalyzer.wakeUp()
+    }
 
     val settings = readSettings()
     val indexers = settings.createIndexers()
@@ -66,122 +122,436 @@ object Server {
     fun scheduleScan() {
         indexers.forEach { indexer ->
             fixedRateTimer(name = "MavenIndexer-${indexer.id}", period = indexer.scanDelay.time) {
-                indexerPool.submit { indexer.scan() }
+                indexerPool.submit {
+                    indexer.scan()
+                    AnalysisQueue.enqueueNotAnalyzed(indexer.id, indexer.supportedArtifactTypes)
+                    backgroundAnalyzer.wakeUp()
+                }
             }
         }
     }
+
+    /**
+     * Periodically analyzes queued artifacts in background, the queue is processed at once
+     * if it is not empty after restart.
+     */
+    fun startBackgroundAnalysis() {
+        if (backgroundAnalyzer.threads > 0) {
+            fixedRateTimer(name = "BackgroundAnalysisTimer", daemon = true, period = BACKGROUND_ANALYSIS_PERIOD) {
+                backgroundAnalyzer.wakeUp()
+            }
+        }
+    }
+
+    private fun analyzeInBackground(artifactId: Int): Boolean {
+        val artifact = ArtifactManager.getArtifact(artifactId)
+        val indexer = indexerIdToIndexerMap[ArtifactManager.getSourceIndexerName(artifactId)] ?: return false
+        return Analyzer.analyzeIfNeeded(indexer, artifact, cacheResult = false)
+    }
 }
 
 @RestController
 class RestController {
 
+    @DeleteMapping("/usages")
+    fun cancel(@RequestHeader(UUID_HEADER_NAME) uuid: String) {
+        if (Server.requestExecutor.cancel(uuid))
+            log.info("[$uuid] Request has been cancelled")
+    }
 
-
-//    fun cancel(@RequestHeader(UUID_HEADER_NAME) uuid: String) {
-//        TODO("Cancellation is not implemented")
-//    }
-
+    /**
+     * Finds usages for the request, they are sent in the compact format if it is accepted by the client.
+     */
     @PostMapping(produces = arrayOf(MediaType.APPLICATION_STREAM_JSON_VALUE), value = "/usages")
-    fun findUsages(@RequestHeader(UUID_HEADER_NAME) uuid: String, @RequestBody request: MemberUsageRequest): Flux<MemberUsage> {
-        println("[$uuid] REQUEST=$request")
-        val pkg = request.member.packageName()
-        val artifactsWithPackage = ArtifactManager.artifactsWithPackage(pkg)
-        var artifactsToAnalyze = (artifactsWithPackage + ArtifactManager.artifactIdsWithAnyDependency(artifactsWithPackage))
-                .map { artifactId -> ArtifactManager.getArtifact(artifactId) }
-        artifactsToAnalyze = filterArtifacts(artifactsToAnalyze, request.searchScope)
+    fun findUsages(@RequestHeader(UUID_HEADER_NAME) uuid: String,
+                   @RequestHeader(value = HttpHeaders.ACCEPT, required = false) accept: String?,
+                   @RequestBody request: MemberUsageRequest, response: HttpServletResponse): Flux<*> {
+        val timer = Server.requestMetrics.start(uuid)
+        val messages = findUsageMessages(uuid, request, timer)
+        if (!acceptsCompactFormat(accept))
+            return messages.doFinally { Server.requestMetrics.finish(timer) }
+        response.setHeader(FORMAT_HEADER_NAME, COMPACT_FORMAT)
+        return Flux.defer {
+            val encoder = CompactUsagesEncoder()
+            messages.concatMapIterable { timer.time(RequestPhase.SERIALIZATION) { encoder.encode(it) } }
+        }.doFinally { Server.requestMetrics.finish(timer) }
+    }
+
+    private fun findUsageMessages(uuid: String, request: MemberUsageRequest, timer: RequestTimer,
+                                  progress: RequestProgress = RequestProgress.NONE): Flux<MemberUsagesMessage> {
+        log.info("[$uuid] Request=$request")
+        // Results are cached for the current generation of artifacts information only
+        val generation = ArtifactManager.generation()
+        val cachedUsages = Server.resultCache.get(request, generation)
+        if (cachedUsages != null) {
+            progress.onArtifactsFound(0)
+            return limitUsages(Flux.fromIterable(cachedUsages), request.maxUsages)
+        }
+        val artifactsToAnalyze = findCandidateArtifacts(request, timer)
+        progress.onArtifactsFound(artifactsToAnalyze.size)
 //        println("[$uuid] ARTIFACTS TO ANALYZE=" + artifactsToAnalyze.map { it.value })
-        // Analyze artifacts if needed
-        var isCancelled = false
-        val stream = artifactsToAnalyze.stream().parallel().map { artifact ->
-            if (isCancelled)
-                return@map Stream.empty<MemberUsage>()
-            val indexer = Server.indexerIdToIndexerMap[ArtifactManager.getSourceIndexerName(artifact.id)]
-            if (indexer == null) {
-                log.warn("Artifact ${artifact.value} has not been indexed yet and cannot be analyzed")
-                return@map Stream.empty<MemberUsage>()
-            }
-            val usages = Analyzer0().analyze(indexer, artifact.value)
-//            println("[$uuid] ARTIFACT ${artifact.value} ANALYZED, USAGES=$usages")
-            usages.stream()
-//            Analyzer.analyzeIfNeeded(indexer, artifact)
-        }.flatMap { it }.filter { usage ->
-            if (usage.member == request.member)
-                return@filter true
-            if (request.member.type == MemberType.PACKAGE) {
-                if (request.findClasses && usage.member.type == MemberType.CLASS && usage.member.packageName() == request.member.packageName())
-                    return@filter true
-                if (request.findClasses && request.findFields && usage.member.type == MemberType.FIELD && usage.member.packageName() == request.member.packageName())
-                    return@filter true
-                if (request.findClasses && request.findMethods && usage.member.type == MemberType.METHOD && usage.member.packageName() == request.member.packageName())
-                    return@filter true
-            }
-            if (request.member.type == MemberType.CLASS) {
-                if (request.findFields && usage.member.type == MemberType.FIELD && usage.member.className() == request.member.className())
-                    return@filter true
-                if (request.findMethods && usage.member.type == MemberType.METHOD && usage.member.className() == request.member.className())
-                    return@filter true
-            }
-            return@filter false
+        // Usages in already analyzed artifacts are looked up in the index directly,
+        // other artifacts are analyzed and stored to the index at first
+        val analyzedArtifactIds = ArtifactManager.analyzedArtifactIds(artifactsToAnalyze.map { it.id })
+        val (analyzedArtifacts, notAnalyzedArtifacts) = artifactsToAnalyze.partition { analyzedArtifactIds.contains(it.id) }
+        val query = MemberUsageQuery(request)
+        // All blocking work is done in the dedicated executor, it limits
+        // the number of artifacts which are analyzed for one request at once
+        val requestTasks = Server.requestExecutor.newRequest(uuid)
+        val incomplete = AtomicBoolean()
+        if (query.expandsToDerived) {
+            // Derived classes and overriding methods are found via the class hierarchy index,
+            // so all artifacts are analyzed before usages are looked up in the index
+            val usages = analyzeArtifacts(uuid, notAnalyzedArtifacts, requestTasks, timer, incomplete, progress)
+                    .then(Mono.defer {
+                        Mono.fromFuture(requestTasks.submit {
+                            timer.time(RequestPhase.INDEX_LOOKUP) {
+                                UsagesManager.findMemberUsages(query, artifactsToAnalyze)
+                            }
+                        })
+                    }).doOnSuccess { progress.onArtifactsProcessed(analyzedArtifacts.size) }.flatMapIterable { it }
+            return limitUsages(cacheUsages(usages, request, generation, incomplete), request.maxUsages)
+                    .doFinally { requestTasks.close() }
+        }
+        val indexedUsages = Mono.fromFuture(requestTasks.submit {
+            timer.time(RequestPhase.INDEX_LOOKUP) { Analyzer.findAnalyzedUsages(query, analyzedArtifacts) }
+        }).doOnSuccess { progress.onArtifactsProcessed(analyzedArtifacts.size) }
+        // Every artifact is a separate publisher, so its usages are emitted as soon as the artifact is analyzed.
+        // Indexed usages are looked up first, then cached artifacts are analyzed while downloads are in progress
+        val analyzedUsages = Flux.fromIterable(scheduleArtifactAnalyses(notAnalyzedArtifacts)).flatMap({ artifact ->
+            Mono.fromFuture(requestTasks.submit { findArtifactUsages(artifact, listOf(query), requestTasks, timer)[0] })
+                    .onErrorResume { e ->
+                        incomplete.set(true)
+                        skipFailedArtifact<List<MemberUsage>>(uuid, artifact, e)
+                    }
+                    .doOnSuccess { progress.onArtifactsProcessed(1) }
+        }, Configuration.requestParallelism)
+        val usages = Flux.merge(indexedUsages, analyzedUsages).flatMapIterable { it }
+        return limitUsages(cacheUsages(usages, request, generation, incomplete), request.maxUsages)
+                .doFinally { requestTasks.close() }
+    }
+
+    /**
+     * Finds usages for several requests at once, every candidate artifact is analyzed once for all of them.
+     * Found usages are tagged with indices of the requests, results of every request
+     * are completed by its own [CompleteMessage].
+     */
+    @PostMapping(produces = arrayOf(MediaType.APPLICATION_STREAM_JSON_VALUE), value = "/usages/batch")
+    fun findUsagesBatch(@RequestHeader(UUID_HEADER_NAME) uuid: String,
+                        @RequestBody requests: List<MemberUsageRequest>): Flux<MemberUsagesBatchMessage> {
+        log.info("[$uuid] Batch request of ${requests.size} members")
+        val timer = Server.requestMetrics.start(uuid)
+        val generation = ArtifactManager.generation()
+        val cachedUsages = requests.map { Server.resultCache.get(it, generation) }
+        // Find candidate artifacts once for requests with the same package and search scope,
+        // then group requests by artifacts
+        val candidatesByScope = HashMap<Pair<String, ArtifactMask>, List<WithId<Artifact>>>()
+        val candidatesByRequest = requests.mapIndexed { i, request ->
+            if (cachedUsages[i] != null)
+                emptyList<WithId<Artifact>>()
+            else
+                candidatesByScope.getOrPut(Pair(request.member.packageName(), request.searchScope)) {
+                    findCandidateArtifacts(request, timer)
+                }
+        }
+        val queries = requests.map { MemberUsageQuery(it) }
+        val plan = BatchPlan(queries, candidatesByRequest)
+        // Usages in already analyzed artifacts are looked up in the index once for every request,
+        // other artifacts are analyzed once for all requests. Requests of derived members are
+        // looked up in the index after all artifacts are analyzed, see findUsageMessages
+        val analyzedArtifactIds = ArtifactManager.analyzedArtifactIds(plan.artifacts.map { it.id })
+        val analyzedArtifactsByRequest = requests.map { ArrayList<WithId<Artifact>>() }
+        val notAnalyzedArtifacts = ArrayList<WithId<Artifact>>()
+        for (artifact in plan.artifacts) {
+            if (analyzedArtifactIds.contains(artifact.id))
+                plan.requests(artifact).forEach { analyzedArtifactsByRequest[it] += artifact }
+            else
+                notAnalyzedArtifacts += artifact
+        }
+        val derivedRequests = requests.indices.filter { cachedUsages[it] == null && queries[it].expandsToDerived }
+        val requestTasks = Server.requestExecutor.newRequest(uuid)
+        val cached = Flux.fromIterable(requests.indices.filter { cachedUsages[it] != null })
+                .map { Pair(it, cachedUsages[it]!!) }
+        val indexed = Flux.fromIterable(requests.indices.filter {
+            !analyzedArtifactsByRequest[it].isEmpty() && !queries[it].expandsToDerived
+        })
+                .flatMap({ i ->
+                    Mono.fromFuture(requestTasks.submit {
+                        timer.time(RequestPhase.INDEX_LOOKUP) {
+                            Pair(i, Analyzer.findAnalyzedUsages(queries[i], analyzedArtifactsByRequest[i]))
+                        }
+                    })
+                }, Configuration.requestParallelism)
+        val analyzed = Flux.fromIterable(scheduleArtifactAnalyses(notAnalyzedArtifacts)).flatMap({ artifact ->
+            val indices = plan.directRequests(artifact)
+            // Candidates of derived requests are stored to the index now, since derived usages are looked up there
+            val analyzeLater = !plan.mustBeStored(artifact)
+            Mono.fromFuture(requestTasks.submit {
+                indices.zip(findArtifactUsages(artifact, indices.map { queries[it] }, requestTasks, timer,
+                        analyzeLater))
+            }).onErrorResume { e -> skipFailedArtifact<List<Pair<Int, List<MemberUsage>>>>(uuid, artifact, e) }
+        }, Configuration.requestParallelism).flatMapIterable { it }
+        val derived = Flux.fromIterable(derivedRequests).flatMap({ i ->
+            Mono.fromFuture(requestTasks.submit {
+                timer.time(RequestPhase.INDEX_LOOKUP) {
+                    Pair(i, UsagesManager.findMemberUsages(queries[i], candidatesByRequest[i]))
+                }
+            })
+        }, Configuration.requestParallelism)
+        return Flux.defer {
+            val limiter = BatchUsagesLimiter(requests.map { it.maxUsages })
+            Flux.merge(cached, indexed, analyzed).concatWith(derived)
+                    .concatMapIterable { (i, usages) ->
+                        timer.time(RequestPhase.SERIALIZATION) { limiter.messages(i, usages) }
+                    }
+                    .takeUntil { limiter.allExceeded }
+                    .concatWith(Flux.defer { Flux.fromIterable(limiter.completeMessages()) })
+        }.doFinally {
+            requestTasks.close()
+            Server.requestMetrics.finish(timer)
+        }
+    }
+
+    /**
+     * Counts usages for the request. Not analyzed artifacts are analyzed and stored to the usages index at first,
+     * then usages are counted in the index without loading them.
+     */
+    @PostMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/usages/summary")
+    fun summarizeUsages(@RequestHeader(UUID_HEADER_NAME) uuid: String,
+                        @RequestBody request: MemberUsageRequest): Mono<MemberUsagesSummary> {
+        log.info("[$uuid] Summary request=$request")
+        val timer = Server.requestMetrics.start(uuid)
+        val artifacts = findCandidateArtifacts(request, timer)
+        val analyzedArtifactIds = ArtifactManager.analyzedArtifactIds(artifacts.map { it.id })
+        val query = MemberUsageQuery(request)
+        val requestTasks = Server.requestExecutor.newRequest(uuid)
+        val notAnalyzedArtifacts = artifacts.filter { !analyzedArtifactIds.contains(it.id) }
+        return analyzeArtifacts(uuid, notAnalyzedArtifacts, requestTasks, timer, AtomicBoolean())
+                .then(Mono.defer {
+                    Mono.fromFuture(requestTasks.submit {
+                        timer.time(RequestPhase.INDEX_LOOKUP) { summarizeUsages(query, artifacts) }
+                    })
+                })
+                .doFinally {
+                    requestTasks.close()
+                    Server.requestMetrics.finish(timer)
+                }
+    }
+
+    /**
+     * Submits a find usages job for the request. The job is executed in background regardless of the client
+     * connection, its progress and found usages are requested by the job id from the returned status.
+     */
+    @PostMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/jobs")
+    fun submitJob(@RequestBody request: MemberUsageRequest): UsagesJobStatus {
+        val job = Server.jobs.create(request)
+        val timer = Server.requestMetrics.start(job.id)
+        job.subscription = findUsageMessages(job.id, request, timer, job)
+                .doFinally { Server.requestMetrics.finish(timer) }
+                .subscribe({ message ->
+                    message.usage?.let { job.append(it) }
+                    when (message.complete) {
+                        CompleteMessage.COMPLETE -> job.finish(UsagesJobState.COMPLETED)
+                        CompleteMessage.USAGES_NUMBER_EXCEED -> job.finish(UsagesJobState.USAGES_NUMBER_EXCEED)
+                        null -> {}
+                    }
+                }, { e ->
+                    log.warn("[${job.id}] Job has failed", e)
+                    job.finish(UsagesJobState.FAILED, e.toString())
+                })
+        return job.status()
+    }
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/jobs/{id}")
+    fun jobStatus(@PathVariable("id") id: String): UsagesJobStatus = Server.jobs.get(id).status()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/jobs/{id}/usages")
+    fun jobUsages(@PathVariable("id") id: String,
+                  @RequestParam(value = "offset", defaultValue = "0") offset: Int,
+                  @RequestParam(value = "limit", defaultValue = "1000") limit: Int): UsagesJobPage {
+        return Server.jobs.get(id).page(offset, minOf(limit, MAX_JOB_PAGE_SIZE))
+    }
+
+    /**
+     * Cancels the job if it is running and removes it with all found usages.
+     */
+    @DeleteMapping("/jobs/{id}")
+    fun removeJob(@PathVariable("id") id: String) {
+        Server.jobs.remove(id)
+        log.info("[$id] Job has been removed")
+    }
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/executor")
+    fun executorStats(): RequestExecutorStats = Server.requestExecutor.stats()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/cache")
+    fun cacheStats(): UsagesResultCacheStats = Server.resultCache.stats()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/scanResults")
+    fun scanResultCacheStats(): ScanResultCacheStats = Analyzer.scanResultCacheStats()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/backgroundAnalysis")
+    fun backgroundAnalysisStats(): BackgroundAnalysisStats = Server.backgroundAnalyzer.stats()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/artifactStore")
+    fun artifactStoreStats(): ArtifactStoreStats = ArtifactStore.default.stats()
+
+    @GetMapping(produces = arrayOf(MediaType.APPLICATION_JSON_VALUE), value = "/stats/metrics")
+    fun metricsStats(): RequestMetricsStats = Server.requestMetrics.stats()
+
+    /**
+     * Converts usages to messages and completes them with [CompleteMessage.COMPLETE],
+     * or with [CompleteMessage.USAGES_NUMBER_EXCEED] if there are more than [maxUsages] usages.
+     * In the latter case the search is stopped, it cancels all pending and running tasks of the request.
+     */
+    private fun limitUsages(usages: Flux<MemberUsage>, maxUsages: Int): Flux<MemberUsagesMessage> {
+        val complete = Mono.just(MemberUsagesMessage(complete = CompleteMessage.COMPLETE))
+        if (maxUsages <= 0)
+            return usages.map { MemberUsagesMessage(usage = it) }.concatWith(complete)
+        return Flux.defer {
+            var count = 0
+            usages.take(maxUsages + 1L).map {
+                if (count++ < maxUsages)
+                    MemberUsagesMessage(usage = it)
+                else
+                    MemberUsagesMessage(complete = CompleteMessage.USAGES_NUMBER_EXCEED)
+            }.concatWith(complete).takeUntil { it.complete != null }
+        }
+    }
+
+    /**
+     * Caches usages if all of them are found, it is not so if the request is cancelled or limited,
+     * or if some artifacts have not been analyzed.
+     */
+    private fun cacheUsages(usages: Flux<MemberUsage>, request: MemberUsageRequest, generation: Long,
+                            incomplete: AtomicBoolean): Flux<MemberUsage> {
+        return Flux.defer {
+            val found = ArrayList<MemberUsage>()
+            usages.doOnNext { if (found.size <= Configuration.resultCacheSize) found += it }
+                    .doOnComplete {
+                        if (!incomplete.get())
+                            Server.resultCache.put(request, generation, found)
+                    }
         }
-        return Flux.fromStream(stream).doOnCancel {
-            isCancelled = true
+    }
+
+    private fun <T> skipFailedArtifact(uuid: String, artifact: WithId<Artifact>, e: Throwable): Mono<T> {
+        val cause = if (e is CompletionException && e.cause != null) e.cause else e
+        if (cause is CancellationException)
+            return Mono.error(cause)
+        if (cause is ArtifactAnalysisException)
+            log.warn("[$uuid] Cannot find usages in ${artifact.value}: ${cause.message}")
+        else
+            log.warn("[$uuid] Cannot find usages in ${artifact.value}", cause)
+        return Mono.empty()
+    }
+
+    /**
+     * Finds usages in the artifact, throws [ArtifactAnalysisException] if it cannot be analyzed,
+     * so that the request is not cached as a complete one. If [analyzeLater] is set, usages of a not analyzed
+     * artifact could be read from its cached report and the artifact is stored to the usages index in background.
+     */
+    private fun findArtifactUsages(artifact: WithId<Artifact>, queries: List<MemberUsageQuery>,
+                                   cancellation: Cancellation, timer: RequestTimer,
+                                   analyzeLater: Boolean = true): List<List<MemberUsage>> {
+        cancellation.checkCancelled()
+        return Analyzer.findUsages(getIndexer(artifact), artifact, queries, cancellation, timer,
+                if (analyzeLater) Server.analyzeLater else null)
+                ?: throw ArtifactAnalysisException("artifact cannot be analyzed")
+    }
+
+    /**
+     * Analyzes the specified artifacts and stores them to the usages index, [incomplete] is set
+     * if some of them cannot be analyzed. The returned publisher completes after all analyses.
+     */
+    private fun analyzeArtifacts(uuid: String, artifacts: List<WithId<Artifact>>, requestTasks: RequestTasks,
+                                 timer: RequestTimer, incomplete: AtomicBoolean,
+                                 progress: RequestProgress = RequestProgress.NONE): Mono<Void> {
+        val analyses = scheduleArtifactAnalyses(artifacts).map { artifact ->
+            Mono.fromFuture(requestTasks.submit { analyzeArtifact(artifact, requestTasks, timer) })
+                    .onErrorResume { e ->
+                        incomplete.set(true)
+                        skipFailedArtifact<Unit>(uuid, artifact, e)
+                    }
+                    .doOnSuccess { progress.onArtifactsProcessed(1) }
+        }
+        return Flux.merge(analyses).then()
+    }
+
+    /**
+     * Analyzes the artifact if needed, throws [ArtifactAnalysisException] if it cannot be analyzed.
+     */
+    private fun analyzeArtifact(artifact: WithId<Artifact>, cancellation: Cancellation, timer: RequestTimer) {
+        cancellation.checkCancelled()
+        if (!Analyzer.analyzeIfNeeded(getIndexer(artifact), artifact, cancellation, timer))
+            throw ArtifactAnalysisException("artifact cannot be analyzed")
+    }
+
+    private fun getIndexer(artifact: WithId<Artifact>): MavenIndexer {
+        return Server.indexerIdToIndexerMap[ArtifactManager.getSourceIndexerName(artifact.id)]
+                ?: throw ArtifactAnalysisException("artifact has not been indexed yet and cannot be analyzed")
+    }
+
+    private fun summarizeUsages(query: MemberUsageQuery, artifacts: List<WithId<Artifact>>): MemberUsagesSummary {
+        val artifactIds = artifacts.map { it.id }
+        val counts = UsagesManager.countMemberUsages(query, artifactIds)
+        val notAnalyzedArtifacts = artifacts.size - ArtifactManager.analyzedArtifactIds(artifactIds).size
+        val byArtifact = artifacts.filter { counts.containsKey(it.id) }.map {
+            val artifactCounts = counts[it.id]!!
+            ArtifactUsagesSummary(artifact = it.value, total = artifactCounts.values.sum(), byKind = artifactCounts)
+        }.sortedByDescending { it.total }
+        val byKind = EnumMap<UsageKind, Int>(UsageKind::class.java)
+        val byGroupId = TreeMap<String, Int>()
+        for (artifactSummary in byArtifact) {
+            for ((kind, count) in artifactSummary.byKind)
+                byKind[kind] = (byKind[kind] ?: 0) + count
+            val groupId = artifactSummary.artifact.groupId
+            byGroupId[groupId] = (byGroupId[groupId] ?: 0) + artifactSummary.total
         }
-        // todo internal members (fields, methods) and derived members (derived classes, overridden methods)
+        return MemberUsagesSummary(total = byArtifact.sumBy { it.total }, byKind = byKind, byGroupId = byGroupId,
+                byArtifact = byArtifact, notAnalyzedArtifacts = notAnalyzedArtifacts)
     }
 }
 
-private fun filterArtifacts(artifacts: List<WithId<Artifact>>, searchScope: ArtifactMask): List<WithId<Artifact>> {
-    // Filter artifacts by coordinates (ignore last versions number restriction here)
-    val groupIdRegex = globPattern(searchScope.groupId)
-    val artifactIdRegex = globPattern(searchScope.artifactId)
-    val classifierRegex = globPattern(searchScope.classifier)
-    val packagingRegex = globPattern(searchScope.packaging)
-    val versionRegex = globPattern(searchScope.version)
-    val goodArtifacts = artifacts.stream().filter {
-        val a = it.value
-        groupIdRegex.matches(a.groupId)
-                && artifactIdRegex.matches(a.artifactId)
-                && classifierRegex.matches(a.classifier.toString()) // toString here because it can be null
-                && packagingRegex.matches(a.type.toString()) // toString here because it can be null
-                && versionRegex.matches(a.version)
+/**
+ * Returns artifacts which could use the requested member: artifacts with its package
+ * and artifacts which depend on them, restricted by the search scope.
+ */
+private fun findCandidateArtifacts(request: MemberUsageRequest, timer: RequestTimer): List<WithId<Artifact>> {
+    val artifactIds = timer.time(RequestPhase.CANDIDATES) {
+        val artifactsWithPackage = ArtifactManager.artifactsWithPackage(request.member.packageName())
+        artifactsWithPackage + ArtifactManager.artifactIdsWithAnyDependency(artifactsWithPackage)
     }
+    return timer.time(RequestPhase.SCOPE_FILTER) { findArtifacts(artifactIds, request.searchScope) }
+}
+
+private fun findArtifacts(artifactIds: Collection<Int>, searchScope: ArtifactMask): List<WithId<Artifact>> {
+    // Filter artifacts by coordinates (ignore last versions number restriction here)
+    val goodArtifacts = ArtifactManager.getArtifacts(artifactIds, ArtifactMaskMatcher.of(searchScope))
     // Return filtered artifacts if they should not be restricted by last versions number
     if (searchScope.numberOfLastVersions < 0)
-        return goodArtifacts.toList()
-    // Split artifacts to lists with same coordinates except for version.
-    // Therefore, every list contains all versions of artifact.
-    data class ArtifactKey(val groupId: String, val artifactId: String, val classifier: String?, val type: String?)
-
-    val artifactsByKey = goodArtifacts.collect(
-            Collectors.groupingBy<WithId<Artifact>, ArtifactKey> {
-                val a = it.value
-                ArtifactKey(groupId = a.groupId, artifactId = a.artifactId,
-                        classifier = a.classifier, type = a.type)
-            })
-    // Restrict by last versions number
-    val versionScheme = GenericVersionScheme()
-    return artifactsByKey.values.stream().flatMap {
-        it.stream().sorted({ a1, a2 ->
-            // todo do not create versions on each comparision!
-            val v1 = versionScheme.parseVersion(a1.value.version)
-            val v2 = versionScheme.parseVersion(a2.value.version)
-            v2.compareTo(v1)
-        }).limit(searchScope.numberOfLastVersions.toLong())
-    }.toList()
+        return goodArtifacts
+    // Restrict by last versions number, versions are ordered by precomputed ranks
+    return ArtifactManager.lastVersions(goodArtifacts, searchScope.numberOfLastVersions)
 }
 
-// todo verify this transformation
-private fun globPattern(glob: String): Regex {
-    val regex = StringBuilder()
-    for (i in 0 until glob.length) {
-        val c = glob[i]
-        when (c) {
-            '*' -> regex.append(".*")
-            ',' -> regex.append('|')
-            else -> regex.append(Pattern.quote(glob.substring(i, i + 1)))
-        }
-    }
-    return Pattern.compile(regex.toString()).toRegex()
+/**
+ * Orders not analyzed artifacts by estimated cost, see [scheduleAnalyses].
+ * Up to half of the request parallelism is used for downloads started in background.
+ */
+private fun scheduleArtifactAnalyses(artifacts: List<WithId<Artifact>>): List<WithId<Artifact>> {
+    if (artifacts.size <= 1)
+        return artifacts
+    val ages = ArtifactManager.versionAges(artifacts.map { it.id })
+    val agesByIds = HashMap<Int, Int>()
+    artifacts.forEachIndexed { i, artifact -> agesByIds[artifact.id] = ages[i] }
+    return scheduleAnalyses(artifacts, Configuration.requestParallelism / 2,
+            { Analyzer.isReportCached(it) }, { agesByIds[it.id]!! })
 }
 
+/**
+ * Thrown if usages in an artifact cannot be found, results of such requests are not cached.
+ */
+private class ArtifactAnalysisException(message: String) : Exception(message)
+
 data class WithId<out T>(val id: Int, val value: T)
\ No newline at end of file
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.logging.Logging
+import com.devexperts.usages.server.ArtifactSources
+import com.devexperts.usages.server.ArtifactStatus
+import com.devexperts.usages.server.Artifacts
+import com.devexperts.usages.server.PendingAnalyses
+import org.jetbrains.exposed.sql.*
+import org.jetbrains.exposed.sql.transactions.transaction
+
+/**
+ * Durable queue of artifacts which should be analyzed in background, it is stored in the database,
+ * so that it survives restarts. Artifacts are removed from the queue after their analysis
+ * or after several failed analyses. See [BackgroundAnalyzer].
+ */
+object AnalysisQueue {
+    private val log = Logging.getLogging(AnalysisQueue::class.java)
+
+    /**
+     * Adds not analyzed artifacts of the specified indexer to the queue,
+     * only artifacts of the specified types (and artifacts without type) are added.
+     * Returns the number of added artifacts.
+     */
+    fun enqueueNotAnalyzed(indexerId: String, types: Collection<String>): Int {
+        val added = transaction {
+            val indexed = ArtifactSources.slice(ArtifactSources.artifactId).select {
+                ArtifactSources.indexerId.eq(indexerId)
+            }.map { it[ArtifactSources.artifactId] }.toHashSet()
+            val queued = PendingAnalyses.slice(PendingAnalyses.artifactId).selectAll()
+                    .map { it[PendingAnalyses.artifactId] }.toHashSet()
+            val artifactIds = (Artifacts innerJoin ArtifactStatus).slice(Artifacts.id, Artifacts.type).select {
+                ArtifactStatus.analyzed.eq(false)
+            }.filter {
+                val type = it[Artifacts.type]
+                indexed.contains(it[Artifacts.id]) && !queued.contains(it[Artifacts.id]) &&
+                        (type == null || types.contains(type))
+            }.map { it[Artifacts.id] }
+            PendingAnalyses.batchInsert(artifactIds) { id ->
+                this[PendingAnalyses.artifactId] = id
+                this[PendingAnalyses.attempts] = 0
+            }
+            artifactIds.size
+        }
+        if (added > 0)
+            log.info("[$indexerId] $added artifacts have been queued for background analysis")
+        return added
+    }
+
+    /**
+     * Adds the artifact to the queue unless it is queued already.
+     */
+    fun enqueue(artifactId: Int) = transaction {
+        val queued = PendingAnalyses.select { PendingAnalyses.artifactId.eq(artifactId) }.count() > 0
+        if (!queued) {
+            PendingAnalyses.insert {
+                it[PendingAnalyses.artifactId] = artifactId
+                it[PendingAnalyses.attempts] = 0
+            }
+        }
+    }
+
+    /**
+     * Returns ids of at most [limit] queued artifacts, the most recently indexed artifacts go first.
+     */
+    fun next(limit: Int): List<Int> = transaction {
+        PendingAnalyses.slice(PendingAnalyses.artifactId).selectAll()
+                .orderBy(PendingAnalyses.artifactId, isAsc = false)
+                .limit(limit)
+                .map { it[PendingAnalyses.artifactId] }
+    }
+
+    /**
+     * Removes the analyzed artifact from the queue.
+     */
+    fun remove(artifactId: Int) = transaction {
+        PendingAnalyses.deleteWhere { PendingAnalyses.artifactId.eq(artifactId) }
+    }
+
+    /**
+     * Records a failed analysis of the artifact, it is removed from the queue
+     * after [maxAttempts] failures. Returns `true` if the artifact has been removed.
+     */
+    fun fail(artifactId: Int, maxAttempts: Int): Boolean = transaction {
+        val attempts = PendingAnalyses.slice(PendingAnalyses.attempts).select {
+            PendingAnalyses.artifactId.eq(artifactId)
+        }.map { it[PendingAnalyses.attempts] }.firstOrNull() ?: return@transaction true
+        if (attempts + 1 >= maxAttempts) {
+            PendingAnalyses.deleteWhere { PendingAnalyses.artifactId.eq(artifactId) }
+            true
+        } else {
+            PendingAnalyses.update({ PendingAnalyses.artifactId.eq(artifactId) }) {
+                it[PendingAnalyses.attempts] = attempts + 1
+            }
+            false
+        }
+    }
+
+    fun size(): Int = transaction { PendingAnalyses.selectAll().count() }
+}
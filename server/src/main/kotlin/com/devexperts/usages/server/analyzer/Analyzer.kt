@@ -18,40 +18,170 @@
 package com.devexperts.usages.server.analyzer
 
 import com.devexperts.logging.Logging
+import com.devexperts.usages.analyzer.AnalysisPhase
+import com.devexperts.usages.analyzer.AnalysisTimer
+import com.devexperts.usages.analyzer.Analyzer0
+import com.devexperts.usages.analyzer.UsagesScanResult
+import com.devexperts.usages.analyzer.concurrent.Cancellation
 import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.api.MemberUsage
 import com.devexperts.usages.server.WithId
 import com.devexperts.usages.server.artifacts.ArtifactManager
+import com.devexperts.usages.server.config.Configuration
 import com.devexperts.usages.server.indexer.MavenIndexer
-import org.objectweb.asm.ClassReader
-import java.util.zip.ZipFile
+import org.jetbrains.exposed.sql.transactions.transaction
+import java.io.IOException
 
 object Analyzer {
     private val log = Logging.getLogging(Analyzer::class.java)
+    private val analysisFlights = SingleFlight<Artifact, UsagesScanResult?>()
+    private val scanResults = ScanResultCache<UsagesScanResult>(Configuration.scanResultCacheSize,
+            Configuration.scanResultCacheSoftSpill) { it.estimateHeapSize() }
 
-    fun analyzeIfNeeded(indexer: MavenIndexer, artifact: WithId<Artifact>) {
-        if (!ArtifactManager.isAnalyzed(artifact.id)) {
-            downloadAndAnalyze(indexer, artifact)
-            ArtifactManager.markAnalyzed(artifact.id)
+    /**
+     * Analyzes the specified artifact and stores its usages to the usages index
+     * if it has not been done before. Returns `true` if the artifact usages are in the index.
+     * The analysis result is put to the scan result cache only if [cacheResult] is set,
+     * so that artifacts analyzed in background do not evict results of requested ones.
+     */
+    fun analyzeIfNeeded(indexer: MavenIndexer, artifact: WithId<Artifact>,
+                        cancellation: Cancellation = Cancellation.NEVER,
+                        timer: AnalysisTimer = AnalysisTimer.NONE, cacheResult: Boolean = true): Boolean {
+        if (ArtifactManager.isAnalyzed(artifact.id))
+            return true
+        return analyzeAndStore(indexer, artifact, cancellation, timer, cacheResult) != null
+    }
+
+    /**
+     * Returns usages of members requested by the specified [query] in the artifact.
+     * If the artifact has not been analyzed yet and [analyzeLater] is specified, the requested usages
+     * are read from its cached report and the artifact is passed to [analyzeLater] to be stored
+     * to the usages index off the request path. Otherwise the artifact is analyzed and stored
+     * to the usages index, in this case the requested usages are taken from the analysis result directly.
+     * Returns `null` if the artifact cannot be analyzed.
+     */
+    fun findUsages(indexer: MavenIndexer, artifact: WithId<Artifact>, query: MemberUsageQuery,
+                   cancellation: Cancellation, timer: AnalysisTimer = AnalysisTimer.NONE,
+                   analyzeLater: ((WithId<Artifact>) -> Unit)? = null): List<MemberUsage>? {
+        return findUsages(indexer, artifact, listOf(query), cancellation, timer, analyzeLater)?.get(0)
+    }
+
+    /**
+     * Returns usages of members requested by every of the specified [queries] in the artifact,
+     * the artifact is analyzed at most once for all of them. See [findUsages].
+     */
+    fun findUsages(indexer: MavenIndexer, artifact: WithId<Artifact>, queries: List<MemberUsageQuery>,
+                   cancellation: Cancellation, timer: AnalysisTimer = AnalysisTimer.NONE,
+                   analyzeLater: ((WithId<Artifact>) -> Unit)? = null): List<List<MemberUsage>>? {
+        if (ArtifactManager.isAnalyzed(artifact.id))
+            return queries.map { findAnalyzedUsages(it, listOf(artifact)) }
+        if (analyzeLater != null) {
+            val cachedUsages = findCachedUsages(artifact, queries, cancellation, timer)
+            if (cachedUsages != null) {
+                analyzeLater(artifact)
+                return cachedUsages
+            }
+        }
+        val usagesScanResult = analyzeAndStore(indexer, artifact, cancellation, timer) ?: return null
+        return timer.time(AnalysisPhase.USAGES_FILTER) {
+            queries.map { Analyzer0.getMemberUsages(usagesScanResult, artifact.value, it) }
         }
     }
 
-    private fun downloadAndAnalyze(indexer: MavenIndexer, artifact: WithId<Artifact>) {
-        val artifactFile = indexer.downloadArtifact(artifact.value)
-        if (artifactFile == null) {
-            log.error("Cannot analyze artifact $artifact, not downloaded")
-            return
+    /**
+     * Returns usages of members requested by the [query] in the specified analyzed artifacts.
+     * Usages in artifacts which decoded reports are cached in memory are taken from these reports,
+     * reports of repeatedly requested artifacts are loaded to the cache,
+     * other artifacts are looked up in the usages index. Queries which
+     * [expand to derived members][MemberUsageQuery.expandsToDerived] are always looked up in the index,
+     * since they need the class hierarchy.
+     */
+    fun findAnalyzedUsages(query: MemberUsageQuery, artifacts: List<WithId<Artifact>>): List<MemberUsage> {
+        if (query.expandsToDerived)
+            return UsagesManager.findMemberUsages(query, artifacts)
+        val result = ArrayList<MemberUsage>()
+        val notCachedArtifacts = ArrayList<WithId<Artifact>>()
+        for (artifact in artifacts) {
+            val usagesScanResult = scanResults.get(artifact.value) ?: loadHotReport(artifact)
+            if (usagesScanResult != null) {
+                result += Analyzer0.getMemberUsages(usagesScanResult, artifact.value, query)
+            } else {
+                notCachedArtifacts += artifact
+            }
         }
-        ZipFile(artifactFile).use { zip ->
-            zip.entries().iterator().forEach { zipEntry ->
-                if (zipEntry.isDirectory)
-                    return@forEach
-                if (zipEntry.name.endsWith(".class")) {
-                    zip.getInputStream(zipEntry).use { classInputStream ->
-                        val cr = ClassReader(classInputStream)
-                        cr.accept(ClassAnalyzer(artifact.id), ClassReader.SKIP_FRAMES)
-                    }
-                }
+        if (notCachedArtifacts.isNotEmpty())
+            result += UsagesManager.findMemberUsages(query, notCachedArtifacts)
+        return result
+    }
+
+    fun scanResultCacheStats() = scanResults.stats()
+
+    /**
+     * Reads the whole cached report of the analyzed artifact and puts it to the cache
+     * if the artifact is [hot][ScanResultCache.isHot], returns `null` otherwise.
+     */
+    private fun loadHotReport(artifact: WithId<Artifact>): UsagesScanResult? {
+        if (!scanResults.isHot(artifact.value))
+            return null
+        val usagesScanResult = try {
+            Analyzer0.readReport(artifact.value, Cancellation.NEVER)
+        } catch (e: IOException) {
+            log.warn("Cannot read cached report of ${artifact.value}", e)
+            null
+        } ?: return null
+        scanResults.put(artifact.value, usagesScanResult)
+        return usagesScanResult
+    }
+
+    /**
+     * Reads usages of the requested classes only from the cached report of the artifact,
+     * returns `null` if the report is not cached or cannot be read.
+     */
+    private fun findCachedUsages(artifact: WithId<Artifact>, queries: List<MemberUsageQuery>,
+                                 cancellation: Cancellation, timer: AnalysisTimer): List<List<MemberUsage>>? {
+        return try {
+            timer.time(AnalysisPhase.REPORT_READ) {
+                Analyzer0.findCachedMemberUsages(artifact.value, queries, cancellation)
             }
+        } catch (e: IOException) {
+            log.warn("Cannot read cached report of ${artifact.value}", e)
+            null
+        }
+    }
+
+    /**
+     * Returns `true` if the artifact can be analyzed without downloading it.
+     */
+    fun isReportCached(artifact: WithId<Artifact>) = Analyzer0.isUsagesCached(artifact.value)
+
+    /**
+     * Analyzes the artifact and stores its usages. Concurrent callers share the same analysis,
+     * so that the artifact is downloaded and analyzed only once. Analysis phases are recorded
+     * to the timer of the caller which actually performs the analysis.
+     * The result is put to the scan result cache if [cacheResult] of this caller is set.
+     */
+    private fun analyzeAndStore(indexer: MavenIndexer, artifact: WithId<Artifact>, cancellation: Cancellation,
+                                timer: AnalysisTimer, cacheResult: Boolean = true): UsagesScanResult? {
+        val usagesScanResult = analysisFlights.execute(artifact.value, cancellation) { flightCancellation ->
+            analyzeAndStoreOnce(indexer, artifact, flightCancellation, timer)
+        }
+        if (usagesScanResult != null && cacheResult)
+            scanResults.put(artifact.value, usagesScanResult)
+        return usagesScanResult
+    }
+
+    private fun analyzeAndStoreOnce(indexer: MavenIndexer, artifact: WithId<Artifact>,
+                                    cancellation: Cancellation, timer: AnalysisTimer): UsagesScanResult? {
+        val usagesScanResult = Analyzer0().analyze(indexer, artifact.value, cancellation, timer)
+        if (usagesScanResult == null) {
+            log.error("Cannot analyze artifact ${artifact.value}")
+            return null
+        }
+        transaction {
+            UsagesManager.storeArtifactUsages(artifact.id, usagesScanResult)
+            ArtifactManager.markAnalyzed(artifact.id)
         }
+        log.info("Usages of ${artifact.value} have been stored to the index")
+        return usagesScanResult
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.logging.Logging
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+/**
+ * Analyzes artifacts from the [AnalysisQueue] in background by [threads] threads, so that find usages
+ * requests find usages in new artifacts in the usages index instead of downloading them.
+ * Artifacts are analyzed by [analyze] which returns `false` if an artifact cannot be analyzed,
+ * such artifacts are retried on the next [wakeUp] until [maxAttempts] analyses fail.
+ * Zero [threads] disables background analysis.
+ */
+class BackgroundAnalyzer(val threads: Int, private val maxAttempts: Int, private val analyze: (Int) -> Boolean) {
+    private val log = Logging.getLogging(BackgroundAnalyzer::class.java)
+
+    private val dispatcher = Executors.newSingleThreadExecutor { r ->
+        thread(start = false, isDaemon = true, name = "BackgroundAnalyzer") { r.run() }
+    }
+    private val workers: ExecutorService? = if (threads <= 0) null else {
+        val threadNumber = AtomicInteger()
+        Executors.newFixedThreadPool(threads) { r ->
+            thread(start = false, isDaemon = true, name = "BackgroundAnalyzer-${threadNumber.getAndIncrement()}") {
+                r.run()
+            }
+        }
+    }
+    private val scheduled = AtomicBoolean()
+    private val analyzed = AtomicLong()
+    private val failed = AtomicLong()
+    private val dropped = AtomicLong()
+
+    /**
+     * Starts processing of the queue unless it has been started already.
+     */
+    fun wakeUp() {
+        if (workers != null && scheduled.compareAndSet(false, true))
+            dispatcher.submit { processQueue(workers) }
+    }
+
+    fun stats() = BackgroundAnalysisStats(queued = AnalysisQueue.size(), threads = threads,
+            analyzed = analyzed.get(), failed = failed.get(), dropped = dropped.get())
+
+    private fun processQueue(workers: ExecutorService) {
+        // Artifacts queued after this point are processed by this run or by the next scheduled one
+        scheduled.set(false)
+        // Failed artifacts are not retried during the same run
+        val failedArtifactIds = HashSet<Int>()
+        try {
+            while (true) {
+                val batchSize = 4 * threads
+                val batch = AnalysisQueue.next(batchSize + failedArtifactIds.size)
+                        .filter { !failedArtifactIds.contains(it) }.take(batchSize)
+                if (batch.isEmpty())
+                    return
+                batch.map { artifactId -> Pair(artifactId, workers.submit<Boolean> { process(artifactId) }) }
+                        .filter { !it.second.get() }
+                        .forEach { failedArtifactIds += it.first }
+            }
+        } catch (e: Exception) {
+            log.error("Background analysis has failed", e)
+        }
+    }
+
+    private fun process(artifactId: Int): Boolean {
+        val success = try {
+            analyze(artifactId)
+        } catch (e: Exception) {
+            log.warn("Background analysis of artifact $artifactId has failed", e)
+            false
+        }
+        if (success) {
+            AnalysisQueue.remove(artifactId)
+            analyzed.incrementAndGet()
+        } else {
+            failed.incrementAndGet()
+            if (AnalysisQueue.fail(artifactId, maxAttempts)) {
+                dropped.incrementAndGet()
+                log.warn("Artifact $artifactId has been removed from the background analysis queue " +
+                        "after $maxAttempts failed attempts")
+            }
+        }
+        return success
+    }
+}
+
+/**
+ * State of [BackgroundAnalyzer], it is shown by the `/stats/backgroundAnalysis` endpoint.
+ */
+data class BackgroundAnalysisStats(
+        val queued: Int,
+        val threads: Int,
+        val analyzed: Long,
+        val failed: Long,
+        val dropped: Long
+)
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.api.Member
+import com.devexperts.usages.api.MemberType
+import com.devexperts.usages.api.MemberUsageRequest
+
+/**
+ * Describes members which usages are requested by [MemberUsageRequest].
+ * It is used to filter usages as early as possible, before they are converted to [MemberUsage]s.
+ *
+ * Usages of derived classes and overriding methods are found via the class hierarchy index,
+ * which is complete only after all artifacts are analyzed, see [expandsToDerived].
+ */
+class MemberUsageQuery(
+        val member: Member,
+        val findClasses: Boolean,
+        val findMethods: Boolean,
+        val findFields: Boolean,
+        val findDerivedClasses: Boolean = false,
+        val findDerivedMethods: Boolean = false
+) {
+    constructor(request: MemberUsageRequest) : this(member = request.member, findClasses = request.findClasses,
+            findMethods = request.findMethods, findFields = request.findFields,
+            findDerivedClasses = request.findDerivedClassesUsages,
+            findDerivedMethods = request.findDerivedMethodsUsages)
+
+    /**
+     * Name of the only class which (or which members) usages are requested,
+     * `null` if usages of classes from the requested package are requested.
+     */
+    val requestedClassName: String? = if (member.type == MemberType.PACKAGE) null else member.className()
+
+    /**
+     * Common prefix of names of all classes which (or which members) usages could be requested.
+     */
+    val requestedClassPrefix: String = requestedClassName ?:
+            member.packageName().let { if (it.isEmpty()) it else "$it." }
+
+    /**
+     * `true` if usages of classes derived from the requested class or usages of methods
+     * overriding the requested method are requested too.
+     */
+    val expandsToDerived: Boolean = findDerivedClasses && member.type == MemberType.CLASS ||
+            findDerivedMethods && member.type == MemberType.METHOD
+
+    /**
+     * Returns the query for usages of the specified class or method which is derived from the requested one.
+     */
+    fun forDerived(derived: Member) = MemberUsageQuery(derived, findClasses, findMethods, findFields)
+
+    /**
+     * Returns `true` if usages of the specified class or its members could be requested by this query.
+     */
+    fun matchesClass(className: String): Boolean {
+        if (requestedClassName != null)
+            return className == requestedClassName
+        return matches(Member.fromClass(className))
+    }
+
+    /**
+     * Returns `true` if usages of the specified member are requested by this query.
+     */
+    fun matches(m: Member): Boolean {
+        if (m == member)
+            return true
+        if (member.type == MemberType.PACKAGE) {
+            if (findClasses && m.type == MemberType.CLASS && m.packageName() == member.packageName())
+                return true
+            if (findClasses && findFields && m.type == MemberType.FIELD && m.packageName() == member.packageName())
+                return true
+            if (findClasses && findMethods && m.type == MemberType.METHOD && m.packageName() == member.packageName())
+                return true
+        }
+        if (member.type == MemberType.CLASS) {
+            if (findFields && m.type == MemberType.FIELD && m.className() == member.className())
+                return true
+            if (findMethods && m.type == MemberType.METHOD && m.className() == member.className())
+                return true
+        }
+        return false
+    }
+
+    override fun toString() = "MemberUsageQuery(member=$member, findClasses=$findClasses, " +
+            "findMethods=$findMethods, findFields=$findFields, findDerivedClasses=$findDerivedClasses, " +
+            "findDerivedMethods=$findDerivedMethods)"
+}
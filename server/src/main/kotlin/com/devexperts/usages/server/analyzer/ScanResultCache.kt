@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.api.Artifact
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.SoftReference
+import java.util.*
+
+/**
+ * Cache of decoded usages reports of artifacts. The cache is bounded by the total estimated heap size
+ * of cached results, the least recently used results are evicted. If [softSpill] is set, evicted results
+ * are kept softly reachable and are returned to the cache if they are requested before garbage collection.
+ * Recent misses are counted, so that results which are requested repeatedly can be
+ * recognized as [hot][isHot] and loaded to the cache by the caller.
+ */
+class ScanResultCache<T : Any>(private val maxSize: Long, private val softSpill: Boolean,
+                               private val sizeOf: (T) -> Long) {
+    private val results = LinkedHashMap<Artifact, CachedResult<T>>(16, 0.75f, true)
+    private val spilled = HashMap<Artifact, SpilledResult<T>>()
+    private val queue = ReferenceQueue<T>()
+    private val recentMisses = object : LinkedHashMap<Artifact, Int>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Artifact, Int>?) =
+                this.size > MAX_RECENT_MISSES
+    }
+    private var size = 0L
+    private var hits = 0L
+    private var softHits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    /**
+     * Returns the cached result of the specified artifact or `null` if there is no such result.
+     */
+    @Synchronized
+    fun get(artifact: Artifact): T? {
+        val result = results[artifact]
+        if (result != null) {
+            hits++
+            return result.value
+        }
+        val spilledResult = spilled.remove(artifact)
+        val value = spilledResult?.get()
+        if (spilledResult != null && value != null) {
+            softHits++
+            add(artifact, value, spilledResult.size)
+            return value
+        }
+        misses++
+        recentMisses[artifact] = (recentMisses[artifact] ?: 0) + 1
+        return null
+    }
+
+    /**
+     * Returns `true` if the result of the specified artifact is not cached,
+     * but it has been requested repeatedly, so it is worth to be loaded to the cache.
+     */
+    @Synchronized
+    fun isHot(artifact: Artifact): Boolean = (recentMisses[artifact] ?: 0) >= HOT_MISSES
+
+    /**
+     * Caches the result of the specified artifact unless it is larger than the whole cache.
+     */
+    @Synchronized
+    fun put(artifact: Artifact, value: T) {
+        val size = sizeOf(value)
+        if (size > maxSize)
+            return
+        remove(artifact)
+        spilled.remove(artifact)
+        recentMisses.remove(artifact)
+        add(artifact, value, size)
+    }
+
+    @Synchronized
+    fun stats(): ScanResultCacheStats {
+        purgeSpilled()
+        return ScanResultCacheStats(results = results.size, size = size, maxSize = maxSize, spilled = spilled.size,
+                hits = hits, softHits = softHits, misses = misses, evictions = evictions)
+    }
+
+    private fun add(artifact: Artifact, value: T, size: Long) {
+        results[artifact] = CachedResult(value, size)
+        this.size += size
+        // Evict the least recently used results
+        val it = results.entries.iterator()
+        while (this.size > maxSize && it.hasNext()) {
+            val evicted = it.next()
+            this.size -= evicted.value.size
+            it.remove()
+            evictions++
+            if (softSpill)
+                spilled[evicted.key] = SpilledResult(evicted.key, evicted.value.value, evicted.value.size, queue)
+        }
+        purgeSpilled()
+    }
+
+    private fun remove(artifact: Artifact) {
+        val removed = results.remove(artifact) ?: return
+        size -= removed.size
+    }
+
+    /**
+     * Removes spilled results which have been collected.
+     */
+    private fun purgeSpilled() {
+        while (true) {
+            @Suppress("UNCHECKED_CAST")
+            val reference = queue.poll() as SpilledResult<T>? ?: return
+            if (spilled[reference.artifact] === reference)
+                spilled.remove(reference.artifact)
+        }
+    }
+
+    private companion object {
+        const val MAX_RECENT_MISSES = 1024
+        const val HOT_MISSES = 2
+    }
+
+    private class CachedResult<out T>(val value: T, val size: Long)
+
+    private class SpilledResult<T>(val artifact: Artifact, value: T, val size: Long, queue: ReferenceQueue<T>)
+        : SoftReference<T>(value, queue)
+}
+
+/**
+ * State of [ScanResultCache], it is shown by the `/stats/scanResults` endpoint.
+ */
+data class ScanResultCacheStats(
+        val results: Int,
+        val size: Long,
+        val maxSize: Long,
+        val spilled: Int,
+        val hits: Long,
+        val softHits: Long,
+        val misses: Long,
+        val evictions: Long
+)
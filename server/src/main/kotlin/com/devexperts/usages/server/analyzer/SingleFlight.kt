@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.analyzer.concurrent.Cancellation
+import java.util.concurrent.*
+
+private const val WAIT_CHECK_PERIOD_MILLIS = 100L
+
+/**
+ * Executes at most one task with the same key at once, callers which come while
+ * the task is running wait for its result instead of executing the task again.
+ *
+ * The task is executed in the thread of the first caller with the [Cancellation] of all waiting callers,
+ * it is cancelled only when all of them are cancelled. A waiting caller stops waiting as soon as its own
+ * cancellation is cancelled.
+ */
+class SingleFlight<in K, V> {
+    private val flights = HashMap<K, Flight<V>>()
+
+    fun execute(key: K, cancellation: Cancellation, task: (Cancellation) -> V): V {
+        while (true) {
+            cancellation.checkCancelled()
+            var leader = false
+            val flight = synchronized(flights) {
+                val running = flights[key]
+                if (running != null && running.join(cancellation)) {
+                    running
+                } else {
+                    leader = true
+                    Flight<V>(cancellation).also { flights[key] = it }
+                }
+            }
+            if (leader)
+                return runFlight(key, flight, task)
+            try {
+                return await(flight, cancellation)
+            } catch (e: CancellationException) {
+                // The flight has been cancelled by all its waiters before this caller joined it, try again
+                if (cancellation.isCancelled())
+                    throw e
+            }
+        }
+    }
+
+    /**
+     * Returns the number of callers of the running task with the specified key, including its executor.
+     */
+    fun callers(key: K): Int = synchronized(flights) { flights[key]?.callers ?: 0 }
+
+    private fun runFlight(key: K, flight: Flight<V>, task: (Cancellation) -> V): V {
+        try {
+            val result = task(flight)
+            flight.result.complete(result)
+            return result
+        } catch (e: Throwable) {
+            flight.result.completeExceptionally(e)
+            throw e
+        } finally {
+            synchronized(flights) {
+                // The flight could be replaced by a new one if it has been cancelled
+                if (flights[key] === flight)
+                    flights.remove(key)
+            }
+        }
+    }
+
+    private fun await(flight: Flight<V>, cancellation: Cancellation): V {
+        while (true) {
+            try {
+                return flight.result.get(WAIT_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS)
+            } catch (e: TimeoutException) {
+                cancellation.checkCancelled()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    }
+
+    private class Flight<V>(cancellation: Cancellation) : Cancellation {
+        val result = CompletableFuture<V>()
+        private val waiters = CopyOnWriteArrayList<Cancellation>(listOf(cancellation))
+
+        val callers get() = waiters.size
+
+        override fun isCancelled() = waiters.all { it.isCancelled() }
+
+        /**
+         * Adds a caller waiting for this flight, returns `false` if the flight is being cancelled already.
+         */
+        fun join(cancellation: Cancellation): Boolean {
+            if (isCancelled())
+                return false
+            waiters += cancellation
+            return true
+        }
+    }
+}
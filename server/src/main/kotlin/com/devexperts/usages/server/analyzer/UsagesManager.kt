@@ -17,16 +17,19 @@
  */
 package com.devexperts.usages.server.analyzer
 
+import com.devexperts.usages.analyzer.Analyzer0
+import com.devexperts.usages.analyzer.UsagesScanResult
+import com.devexperts.usages.analyzer.internal.MemberInternal
 import com.devexperts.usages.api.*
+import com.devexperts.usages.server.Derived
 import com.devexperts.usages.server.Locations
 import com.devexperts.usages.server.MemberUsages
 import com.devexperts.usages.server.Members
 import com.devexperts.usages.server.WithId
 import com.devexperts.usages.server.artifacts.ArtifactManager
-import org.jetbrains.exposed.sql.and
-import org.jetbrains.exposed.sql.insert
-import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.*
 import org.jetbrains.exposed.sql.transactions.transaction
+import java.util.*
 
 object UsagesManager {
 
@@ -67,15 +70,232 @@ object UsagesManager {
         }
     }
 
+    /**
+     * Stores all usages from the specified [UsagesScanResult] to the member-keyed usages index,
+     * previously stored usages of the artifact are replaced. Inheritance and overriding usages
+     * are also added to the class hierarchy index, see [Derived].
+     */
+    fun storeArtifactUsages(artifactId: Int, usagesScanResult: UsagesScanResult) = transaction {
+        deleteArtifactUsagesInternal(artifactId)
+        // Caches for ids of members and locations of this artifact
+        val memberIds = HashMap<MemberInternal, Int>()
+        val locationIds = HashMap<LocationKey, Int>()
+        val memberUsages = LinkedHashSet<MemberUsageKey>()
+        val derived = LinkedHashSet<DerivedKey>()
+        usagesScanResult.forEachUsage { member, usedFrom, usage ->
+            val memberId = memberIds.getOrPut(member) { getOrCreateMemberInternal(member.toMember()).id }
+            val locationMemberId = memberIds.getOrPut(usedFrom) { getOrCreateMemberInternal(usedFrom.toMember()).id }
+            val locationId = locationIds.getOrPut(LocationKey(locationMemberId, usage.fileName, usage.lineNumber)) {
+                insertLocationInternal(artifactId, locationMemberId, usage.fileName, usage.lineNumber)
+            }
+            // Different use kinds could be converted to the same usage kind, set removes such duplicates
+            val usageKind = Analyzer0.convertUseKind(usage.useKind)
+            memberUsages += MemberUsageKey(memberId, usageKind, locationId)
+            // A class is extended or implemented by the class it is used from,
+            // a method is overridden by the method it is used from
+            if (usageKind == UsageKind.EXTEND_OR_IMPLEMENT && usedFrom.memberName == MemberInternal.CLASS_MEMBER_NAME
+                    || usageKind == UsageKind.OVERRIDE)
+                derived += DerivedKey(memberId, locationMemberId)
+        }
+        MemberUsages.batchInsert(memberUsages) { u ->
+            this[MemberUsages.memberId] = u.memberId
+            this[MemberUsages.usageKind] = u.usageKind
+            this[MemberUsages.locationId] = u.locationId
+        }
+        addDerivedInternal(derived)
+    }
+
+    /**
+     * Returns classes derived from the specified class or methods overriding the specified method
+     * in all analyzed artifacts, both direct and indirect ones.
+     */
+    fun findDerivedMembers(member: Member): List<Member> = transaction {
+        findDerivedMembersInternal(member).values.toList()
+    }
+
+    /**
+     * Returns usages of members requested by the specified [query] which are stored in the usages index,
+     * only usages from the specified artifacts are returned.
+     */
+    fun findMemberUsages(query: MemberUsageQuery, artifacts: List<WithId<Artifact>>): List<MemberUsage> {
+        if (artifacts.isEmpty())
+            return emptyList()
+        val artifactsById = artifacts.associateBy({ it.id }, { it.value })
+        return transaction {
+            // Find ids of requested members first, then look up their usages
+            val members = findRequestedMembersInternal(query)
+            if (members.isEmpty())
+                return@transaction emptyList<MemberUsage>()
+            val locationMembers = HashMap<Int, Member>(members)
+            (MemberUsages innerJoin Locations).select {
+                MemberUsages.memberId.inList(members.keys.toList()) and
+                        Locations.artifactId.inList(artifactsById.keys.toList())
+            }.map {
+                val location = Location(artifact = artifactsById[it[Locations.artifactId]]!!,
+                        member = locationMembers.getOrPut(it[Locations.memberId]) { getMemberInternal(it[Locations.memberId]) },
+                        file = it[Locations.file],
+                        lineNumber = it[Locations.line])
+                MemberUsage(members[it[MemberUsages.memberId]]!!, it[MemberUsages.usageKind], location)
+            }
+        }
+    }
+
+    /**
+     * Returns numbers of usages of members requested by the specified [query] which are stored in the usages index
+     * by ids of the specified artifacts and usage kinds. Usages themselves are not loaded.
+     */
+    fun countMemberUsages(query: MemberUsageQuery, artifactIds: List<Int>): Map<Int, Map<UsageKind, Int>> {
+        if (artifactIds.isEmpty())
+            return emptyMap()
+        return transaction {
+            val members = findRequestedMembersInternal(query)
+            if (members.isEmpty())
+                return@transaction emptyMap<Int, Map<UsageKind, Int>>()
+            val count = MemberUsages.memberId.count()
+            val counts = HashMap<Int, MutableMap<UsageKind, Int>>()
+            (MemberUsages innerJoin Locations).slice(Locations.artifactId, MemberUsages.usageKind, count).select {
+                MemberUsages.memberId.inList(members.keys.toList()) and Locations.artifactId.inList(artifactIds)
+            }.groupBy(Locations.artifactId, MemberUsages.usageKind).forEach {
+                val artifactCounts = counts.getOrPut(it[Locations.artifactId]) { EnumMap(UsageKind::class.java) }
+                artifactCounts[it[MemberUsages.usageKind]] = it[count]
+            }
+            counts
+        }
+    }
+
     // === END PUBLIC API ===
 
-    private fun getMemberInternal(memberId: Int): Member {
-        val q = Members.select { Members.id.eq(memberId) }.limit(1).first()
-        return Member(qualifiedMemberName = q[Members.qualifiedName],
-                parameterTypes = parseParameterTypes(q[Members.paramTypes]),
-                type = q[Members.type])
+    /**
+     * Returns members (with their ids) which usages are requested by the specified [query],
+     * members of derived classes and overriding methods are included if the query [expands to them]
+     * [MemberUsageQuery.expandsToDerived]. Should be invoked under [transaction].
+     */
+    private fun findRequestedMembersInternal(query: MemberUsageQuery): Map<Int, Member> {
+        val result = findMembersInternal(query)
+        if (query.expandsToDerived) {
+            for (derived in findDerivedMembersInternal(query.member).values)
+                result += findMembersInternal(query.forDerived(derived))
+        }
+        return result
+    }
+
+    /**
+     * Returns members (with their ids) which match the specified [query], derived members are not expanded.
+     * Should be invoked under [transaction].
+     */
+    private fun findMembersInternal(query: MemberUsageQuery): MutableMap<Int, Member> {
+        val m = query.member
+        val select = when (m.type) {
+            MemberType.PACKAGE -> Members.select { Members.qualifiedName.like(m.qualifiedMemberName + ".%") }
+            MemberType.CLASS -> Members.select {
+                Members.qualifiedName.eq(m.qualifiedMemberName) or Members.qualifiedName.like(m.qualifiedMemberName + "#%")
+            }
+            else -> Members.select { Members.qualifiedName.eq(m.qualifiedMemberName) }
+        }
+        val result = HashMap<Int, Member>()
+        select.forEach {
+            val member = toMember(it)
+            if (query.matches(member))
+                result[it[Members.id]] = member
+        }
+        return result
+    }
+
+    /**
+     * Returns classes derived from the specified class or methods overriding the specified method by their ids.
+     * Methods of derived classes with the same signature are considered overriding, so that overriding methods
+     * from other artifacts than the overridden one are found too. Should be invoked under [transaction].
+     */
+    private fun findDerivedMembersInternal(member: Member): Map<Int, Member> {
+        val classIds = Members.slice(Members.id).select {
+            Members.qualifiedName.eq(member.className()) and Members.type.eq(MemberType.CLASS)
+        }.map { it[Members.id] }
+        val derivedClasses = getMembersInternal(findDerivedIdsInternal(classIds))
+        if (member.type == MemberType.CLASS)
+            return derivedClasses
+        val methodIds = Members.slice(Members.id).select {
+            Members.qualifiedName.eq(member.qualifiedMemberName) and
+                    Members.paramTypes.eq(parameterTypesToString(member.parameterTypes)) and
+                    Members.type.eq(member.type)
+        }.map { it[Members.id] }
+        val result = getMembersInternal(findDerivedIdsInternal(methodIds))
+        if (derivedClasses.isEmpty())
+            return result
+        val methodName = member.qualifiedMemberName.substring(member.qualifiedMemberName.indexOf('#'))
+        Members.select {
+            Members.qualifiedName.inList(derivedClasses.values.map { it.qualifiedMemberName + methodName }) and
+                    Members.paramTypes.eq(parameterTypesToString(member.parameterTypes)) and
+                    Members.type.eq(member.type)
+        }.forEach { result[it[Members.id]] = toMember(it) }
+        return result
     }
 
+    /**
+     * Returns ids of members which are derived from the specified ones directly or indirectly.
+     * Should be invoked under [transaction].
+     */
+    private fun findDerivedIdsInternal(memberIds: List<Int>): Set<Int> {
+        val visited = HashSet<Int>(memberIds)
+        val result = HashSet<Int>()
+        var next = memberIds
+        while (!next.isEmpty()) {
+            next = Derived.slice(Derived.derivedMemberId).select { Derived.memberId.inList(next) }
+                    .map { it[Derived.derivedMemberId] }
+                    .filter { visited.add(it) }
+            result += next
+        }
+        return result
+    }
+
+    /**
+     * Adds the specified edges to the class hierarchy index if they have not been added yet.
+     * Should be invoked under [transaction].
+     */
+    private fun addDerivedInternal(derived: Collection<DerivedKey>) {
+        if (derived.isEmpty())
+            return
+        val existing = Derived.select { Derived.memberId.inList(derived.map { it.memberId }.distinct()) }
+                .mapTo(HashSet()) { DerivedKey(it[Derived.memberId], it[Derived.derivedMemberId]) }
+        Derived.batchInsert(derived.filter { !existing.contains(it) }) { d ->
+            this[Derived.memberId] = d.memberId
+            this[Derived.derivedMemberId] = d.derivedMemberId
+        }
+    }
+
+    /**
+     * Removes all locations and usages of the artifact with the specified id from the usages index.
+     * Should be invoked under [transaction].
+     */
+    private fun deleteArtifactUsagesInternal(artifactId: Int) {
+        val locationIds = Locations.slice(Locations.id).select { Locations.artifactId.eq(artifactId) }
+                .map { it[Locations.id] }
+        if (locationIds.isEmpty())
+            return
+        MemberUsages.deleteWhere { MemberUsages.locationId.inList(locationIds) }
+        Locations.deleteWhere { Locations.artifactId.eq(artifactId) }
+    }
+
+    private fun insertLocationInternal(artifactId: Int, memberId: Int, file: String?, line: Int) = Locations.insert {
+        it[Locations.artifactId] = artifactId
+        it[Locations.memberId] = memberId
+        it[Locations.file] = file
+        it[Locations.line] = line
+    }[Locations.id]
+
+    private fun getMemberInternal(memberId: Int): Member =
+            toMember(Members.select { Members.id.eq(memberId) }.limit(1).first())
+
+    private fun getMembersInternal(memberIds: Collection<Int>): MutableMap<Int, Member> {
+        val result = HashMap<Int, Member>()
+        if (!memberIds.isEmpty())
+            Members.select { Members.id.inList(memberIds) }.forEach { result[it[Members.id]] = toMember(it) }
+        return result
+    }
+
+    private fun toMember(row: ResultRow) = Member(qualifiedMemberName = row[Members.qualifiedName],
+            parameterTypes = parseParameterTypes(row[Members.paramTypes]),
+            type = row[Members.type])
+
     private fun getOrCreateMemberInternal(member: Member): WithId<Member> {
         val parameterTypesStr = parameterTypesToString(member.parameterTypes)
         var id = Members.slice(Members.id).select {
@@ -123,5 +343,10 @@ object UsagesManager {
     }
 
     private fun parameterTypesToString(paramTypes: List<String>): String = paramTypes.joinToString(separator = ",")
-    private fun parseParameterTypes(parameterTypes: String): List<String> = parameterTypes.split(",")
+    private fun parseParameterTypes(parameterTypes: String): List<String> =
+            if (parameterTypes.isEmpty()) emptyList() else parameterTypes.split(",")
+
+    private data class LocationKey(val memberId: Int, val file: String?, val line: Int)
+    private data class MemberUsageKey(val memberId: Int, val usageKind: UsageKind, val locationId: Int)
+    private data class DerivedKey(val memberId: Int, val derivedMemberId: Int)
 }
\ No newline at end of file
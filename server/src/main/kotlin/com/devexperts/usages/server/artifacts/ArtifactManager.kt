@@ -20,8 +20,10 @@ package com.devexperts.usages.server.artifacts
 import com.devexperts.logging.Logging
 import com.devexperts.usages.api.Artifact
 import com.devexperts.usages.server.*
+import com.devexperts.usages.server.config.Configuration
 import org.jetbrains.exposed.sql.*
 import org.jetbrains.exposed.sql.transactions.transaction
+import java.util.concurrent.atomic.AtomicLong
 
 
 /**
@@ -31,6 +33,14 @@ import org.jetbrains.exposed.sql.transactions.transaction
 object ArtifactManager {
     val log: Logging = Logging.getLogging(ArtifactManager::class.java)
 
+    private val dependencyGraph = LoadedFromDatabase { loadDependencyGraph() }
+    private val versionCatalog = LoadedFromDatabase { loadVersionCatalog() }
+    private val generation = AtomicLong()
+
+    init {
+        addDatabaseInitListener { generation.incrementAndGet() }
+    }
+
     // === PUBLIC API ===
 
     /**
@@ -38,15 +48,33 @@ object ArtifactManager {
      */
     fun storeArtifactInfo(indexerId: String, artifact: Artifact, dependencies: List<Artifact>,
                           packages: Collection<String>): WithId<Artifact> {
-        return transaction {
+        val (storedArtifacts, addedDependencyIds, changed) = transaction {
+            val created = getArtifactIdInternal(artifact) == null
             val artifactId = getOrCreateArtifact(artifact).id
-            addPackagesInternal(artifactId, packages)
-            addDependenciesInternal(artifactId, dependencies)
-            setSourceIndexerNameInternal(artifactId, indexerId)
-            WithId(artifactId, artifact)
+            val addedPackages = addPackagesInternal(artifactId, packages)
+            val dependencyArtifacts = dependencies.map { getOrCreateArtifact(it) }
+            val addedDependencyIds = addDependenciesInternal(artifactId, dependencyArtifacts.map { it.id })
+            val sourceAdded = setSourceIndexerNameInternal(artifactId, indexerId)
+            Triple(listOf(WithId(artifactId, artifact)) + dependencyArtifacts, addedDependencyIds,
+                    created || addedPackages || !addedDependencyIds.isEmpty() || sourceAdded)
         }
+        // Update in-memory data if it has been loaded already,
+        // otherwise the changes are loaded with it from the database
+        val storedArtifact = storedArtifacts[0]
+        dependencyGraph.ifLoaded { it.addDependencies(storedArtifact.id, addedDependencyIds) }
+        versionCatalog.ifLoaded { catalog -> storedArtifacts.forEach { catalog.add(it) } }
+        if (changed)
+            generation.incrementAndGet()
+        return storedArtifact
     }
 
+    /**
+     * Returns the generation of artifacts information, it is changed every time
+     * when [storeArtifactInfo] adds new artifacts, packages or dependencies.
+     * Results computed for an older generation could be outdated.
+     */
+    fun generation() = generation.get()
+
     /**
      * Returns ids of artifacts contained the specified package.
      */
@@ -64,19 +92,31 @@ object ArtifactManager {
     }
 
     /**
-     * Return ids of artifacts which have any of the specified artifact as its dependency.
+     * Return ids of artifacts which have any of the specified artifact as its direct
+     * or transitive dependency, dependency chains are limited by [maxDepth].
+     * The specified artifacts are not included.
      */
-    fun artifactIdsWithAnyDependency(artifactIds: List<Int>): List<Int> {
-        // todo FIX ME FIX FIX FIX
-        return transaction {
-            artifactIds.map { artifactId ->
-                Dependencies.slice(Dependencies.artifactId).select {
-                    Dependencies.dependencyArtifactId.eq(artifactId)
-                }.toList().map { it[Dependencies.artifactId] }
-            }.flatMap { it }.distinct()
+    fun artifactIdsWithAnyDependency(artifactIds: List<Int>,
+                                     maxDepth: Int = Configuration.dependencyDepth): List<Int> {
+        return dependencyGraph.get().dependents(artifactIds, maxDepth)
+    }
+
+    /**
+     * Returns the newest [numberOfLastVersions] artifacts from the specified ones
+     * for every group of artifacts which differ by version only.
+     */
+    fun lastVersions(artifacts: List<WithId<Artifact>>, numberOfLastVersions: Int): List<WithId<Artifact>> {
+        val ranks = versionCatalog.get().ranks(artifacts.map { it.id })
+        return artifacts.zip(ranks.asList()).groupBy { ArtifactKey(it.first.value) }.values.flatMap { versions ->
+            versions.sortedByDescending { it.second }.take(numberOfLastVersions).map { it.first }
         }
     }
 
+    /**
+     * Returns the number of newer versions for every specified artifact, see [VersionCatalog.ages].
+     */
+    fun versionAges(artifactIds: List<Int>): IntArray = versionCatalog.get().ages(artifactIds)
+
     /**
      * Returns the [Artifact] associated with the specified id.
      */
@@ -84,6 +124,22 @@ object ArtifactManager {
         getArtifactInternal(id)
     }
 
+    /**
+     * Returns artifacts with the specified ids which are matched by the specified matcher,
+     * not matched artifacts are filtered out in the database query where possible.
+     */
+    fun getArtifacts(ids: Collection<Int>, matcher: ArtifactMaskMatcher): List<WithId<Artifact>> {
+        if (ids.isEmpty())
+            return emptyList()
+        val condition = matcher.condition()
+        return transaction {
+            Artifacts.select {
+                val byId = Artifacts.id.inList(ids)
+                if (condition == null) byId else byId and condition
+            }.map { toArtifact(it) }.filter { matcher.matches(it.value) }
+        }
+    }
+
     /**
      * Returns the [Artifact] associated with the specified id.
      * Should be invoked inside [transaction]
@@ -92,12 +148,16 @@ object ArtifactManager {
         val res = Artifacts.select {
             Artifacts.id.eq(id)
         }.limit(1).first()
-        val artifact = Artifact(groupId = res[Artifacts.groupId],
-                artifactId = res[Artifacts.artifactId],
-                version = res[Artifacts.version],
-                type = res[Artifacts.type],
-                classifier = res[Artifacts.classifier])
-        return WithId(id, artifact)
+        return toArtifact(res)
+    }
+
+    private fun toArtifact(row: ResultRow): WithId<Artifact> {
+        val artifact = Artifact(groupId = row[Artifacts.groupId],
+                artifactId = row[Artifacts.artifactId],
+                version = row[Artifacts.version],
+                type = row[Artifacts.type],
+                classifier = row[Artifacts.classifier])
+        return WithId(row[Artifacts.id], artifact)
     }
 
     fun getSourceIndexerName(artifactId: Int): String = transaction {
@@ -112,6 +172,19 @@ object ArtifactManager {
         }.limit(1).first()[ArtifactStatus.analyzed]
     }
 
+    /**
+     * Returns ids of the specified artifacts which have already been analyzed.
+     */
+    fun analyzedArtifactIds(artifactIds: List<Int>): Set<Int> {
+        if (artifactIds.isEmpty())
+            return emptySet()
+        return transaction {
+            ArtifactStatus.slice(ArtifactStatus.artifactId).select {
+                ArtifactStatus.artifactId.inList(artifactIds) and ArtifactStatus.analyzed.eq(true)
+            }.map { it[ArtifactStatus.artifactId] }.toSet()
+        }
+    }
+
     fun markAnalyzed(artifactId: Int) = transaction {
         ArtifactStatus.update({ ArtifactStatus.artifactId.eq(artifactId) }) {
             it[ArtifactStatus.analyzed] = true
@@ -120,6 +193,21 @@ object ArtifactManager {
 
     // === END PUBLIC API ===
 
+    private fun loadDependencyGraph(): DependencyGraph = transaction {
+        val dependencies = DependencyList()
+        Dependencies.selectAll().forEach {
+            dependencies.add(it[Dependencies.artifactId], it[Dependencies.dependencyArtifactId])
+        }
+        log.info("Loaded dependency graph with ${dependencies.size} dependencies")
+        DependencyGraph(dependencies)
+    }
+
+    private fun loadVersionCatalog(): VersionCatalog = transaction {
+        val catalog = VersionCatalog(Artifacts.selectAll().map { toArtifact(it) })
+        log.info("Loaded versions of ${catalog.size} artifacts")
+        catalog
+    }
+
 
     /**
      * Inserts the specified artifact to the database if needed and
@@ -156,7 +244,7 @@ object ArtifactManager {
     /**
      * TODO
      */
-    private fun setSourceIndexerNameInternal(artifactId: Int, indexerId: String) {
+    private fun setSourceIndexerNameInternal(artifactId: Int, indexerId: String): Boolean {
         val exist = ArtifactSources.select { ArtifactSources.artifactId.eq(artifactId) }
                 .limit(1).count() > 0
         if (!exist) {
@@ -165,39 +253,43 @@ object ArtifactManager {
                 it[ArtifactSources.indexerId] = indexerId
             }
         }
+        return !exist
     }
 
     /**
      * Add information of packages in the artifact with the specified id.
      * Should be invoked under [transaction].
      */
-    private fun addPackagesInternal(artifactId: Int, packages: Collection<String>) {
+    private fun addPackagesInternal(artifactId: Int, packages: Collection<String>): Boolean {
         val packageIds = packages.map { pkg -> addPackageIfNeededInternal(pkg) }
         val alreadyStoredPackageIds = ArtifactPackages.slice(ArtifactPackages.packageId)
                 .select {
                     ArtifactPackages.artifactId.eq(artifactId)
                 }.map { it[ArtifactPackages.packageId] }
-        ArtifactPackages.batchInsert((HashSet(packageIds) - alreadyStoredPackageIds)) { pkgId ->
+        val newPackageIds = HashSet(packageIds) - alreadyStoredPackageIds
+        ArtifactPackages.batchInsert(newPackageIds) { pkgId ->
             this[ArtifactPackages.artifactId] = artifactId
             this[ArtifactPackages.packageId] = pkgId
         }
+        return !newPackageIds.isEmpty()
     }
 
     /**
-     * Add information of the specified artifact dependencies.
+     * Add information of the specified artifact dependencies,
+     * returns ids of dependencies which have not been stored before.
      * Should be invoked under [transaction].
      */
-    private fun addDependenciesInternal(artifactId: Int, dependencies: List<Artifact>) {
-        transaction {
-            // Get ids of the specified dependencies
-            val dependencyIds = dependencies.map { getOrCreateArtifact(it).id }
+    private fun addDependenciesInternal(artifactId: Int, dependencyIds: List<Int>): List<Int> {
+        return transaction {
             // Get already added dependencies
             val curDependencyIds = HashSet(getDependenciesInternal(artifactId))
             // This set contains ids of dependencies
-            Dependencies.batchInsert(dependencyIds - curDependencyIds) { depId ->
+            val newDependencyIds = (dependencyIds - curDependencyIds).distinct()
+            Dependencies.batchInsert(newDependencyIds) { depId ->
                 this[Dependencies.artifactId] = artifactId
                 this[Dependencies.dependencyArtifactId] = depId
             }
+            newDependencyIds
         }
     }
 
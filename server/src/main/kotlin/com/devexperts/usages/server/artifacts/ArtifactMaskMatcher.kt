@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import com.devexperts.usages.api.ANY
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.api.ArtifactMask
+import com.devexperts.usages.server.Artifacts
+import org.jetbrains.exposed.sql.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+private const val MAX_CACHED_MATCHERS = 1024
+private const val NULL_STRING = "null"
+
+/**
+ * Compiled [ArtifactMask] coordinates, see [CoordinateMatcher]. Matchers are cached by masks, use [of] to get them.
+ * The [numberOfLastVersions][ArtifactMask.numberOfLastVersions] restriction is not checked by this matcher.
+ */
+class ArtifactMaskMatcher private constructor(mask: ArtifactMask) {
+    private val groupId = CoordinateMatcher(mask.groupId)
+    private val artifactId = CoordinateMatcher(mask.artifactId)
+    private val packaging = CoordinateMatcher(mask.packaging)
+    private val classifier = CoordinateMatcher(mask.classifier)
+    private val version = CoordinateMatcher(mask.version)
+
+    fun matches(a: Artifact) = groupId.matches(a.groupId)
+            && artifactId.matches(a.artifactId)
+            && classifier.matches(a.classifier.toString()) // toString here because it can be null
+            && packaging.matches(a.type.toString()) // toString here because it can be null
+            && version.matches(a.version)
+
+    /**
+     * Returns condition on [Artifacts] table which rejects artifacts not matched by this matcher,
+     * or `null` if there is no such condition. The condition can accept some not matched artifacts,
+     * so that selected artifacts should be checked by [matches] as well.
+     */
+    fun condition(): Op<Boolean>? = listOf(
+            groupId.condition(Artifacts.groupId, nullable = false),
+            artifactId.condition(Artifacts.artifactId, nullable = false),
+            classifier.condition(Artifacts.classifier, nullable = true),
+            packaging.condition(Artifacts.type, nullable = true),
+            version.condition(Artifacts.version, nullable = false)
+    ).fold(null as Op<Boolean>?) { acc, op -> if (acc == null) op else if (op == null) acc else acc and op }
+
+    companion object {
+        private val cache = ConcurrentHashMap<ArtifactMask, ArtifactMaskMatcher>()
+
+        fun of(mask: ArtifactMask): ArtifactMaskMatcher {
+            cache[mask]?.let { return it }
+            if (cache.size >= MAX_CACHED_MATCHERS)
+                cache.clear()
+            return cache.computeIfAbsent(mask) { ArtifactMaskMatcher(it) }
+        }
+    }
+}
+
+/**
+ * Compiled glob pattern of an artifact coordinate: comma-separated alternatives, `*` matches any string.
+ * Exact alternatives are matched by a hash table and `prefix*` ones by a sorted prefix table,
+ * regular expressions are used for other alternatives only.
+ */
+class CoordinateMatcher(glob: String) {
+    private val any: Boolean
+    private val exact = HashSet<String>()
+    // Sorted and prefix-free, so that only the greatest prefix which is not greater than
+    // a matched string can be its prefix
+    private val prefixes: Array<String>
+    private val regex: Regex?
+
+    init {
+        val alternatives = glob.split(',')
+        any = alternatives.contains(ANY)
+        val prefixList = ArrayList<String>()
+        val regexAlternatives = ArrayList<String>()
+        for (a in alternatives) {
+            val wildcard = a.indexOf('*')
+            when {
+                wildcard < 0 -> exact += a
+                wildcard == a.length - 1 -> prefixList += a.substring(0, wildcard)
+                else -> regexAlternatives += a
+            }
+        }
+        prefixList.sort()
+        val prefixFree = ArrayList<String>()
+        prefixList.filterTo(prefixFree) { p -> prefixFree.isEmpty() || !p.startsWith(prefixFree.last()) }
+        prefixes = prefixFree.toTypedArray()
+        regex = if (regexAlternatives.isEmpty()) null else globPattern(regexAlternatives.joinToString(","))
+    }
+
+    fun matches(s: String): Boolean {
+        if (any || exact.contains(s))
+            return true
+        if (!prefixes.isEmpty()) {
+            val index = Arrays.binarySearch(prefixes, s)
+            if (index >= 0 || index < -1 && s.startsWith(prefixes[-index - 2]))
+                return true
+        }
+        return regex != null && regex.matches(s)
+    }
+
+    /**
+     * Returns condition on the specified column for exact and prefix alternatives,
+     * or `null` if all values should be selected.
+     */
+    fun <T : String?> condition(column: Column<T>, nullable: Boolean): Op<Boolean>? {
+        // Null values are matched as "null" strings in memory, do not filter them out
+        if (any || regex != null || nullable && matches(NULL_STRING))
+            return null
+        return with(SqlExpressionBuilder) {
+            val ops = ArrayList<Op<Boolean>>()
+            @Suppress("UNCHECKED_CAST")
+            val values = exact as Set<T>
+            if (!values.isEmpty())
+                ops += column.inList(values)
+            prefixes.forEach { ops += column.like(escapeLike(it) + "%") }
+            ops.reduce { acc, op -> acc or op }
+        }
+    }
+}
+
+private fun escapeLike(s: String) = s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+
+private fun globPattern(glob: String): Regex {
+    val regex = StringBuilder()
+    for (i in 0 until glob.length) {
+        val c = glob[i]
+        when (c) {
+            '*' -> regex.append(".*")
+            ',' -> regex.append('|')
+            else -> regex.append(Pattern.quote(glob.substring(i, i + 1)))
+        }
+    }
+    return Pattern.compile(regex.toString()).toRegex()
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import com.devexperts.logging.Logging
+import com.devexperts.usages.server.config.Configuration
+import java.io.File
+import java.util.*
+
+/**
+ * Store of downloaded artifact files in the [directory] which is used as the local repository of indexers.
+ * Total size of stored files is bounded by [maxSize], the least recently used files are deleted
+ * when it is exceeded. Files which are in use are [pinned][pin] and are not deleted until they are released.
+ * Files which are already in the [directory] are added to the store on its first use.
+ */
+class ArtifactStore(val directory: File, private val maxSize: Long) {
+    private val log = Logging.getLogging(ArtifactStore::class.java)
+
+    private val files = LinkedHashMap<File, StoredFile>(16, 0.75f, true)
+    private var loaded = false
+    private var size = 0L
+    private var downloads = 0L
+    private var reuses = 0L
+    private var evictions = 0L
+    private var evictedSize = 0L
+
+    /**
+     * Adds the downloaded file to the store or updates its size if it has been downloaded again.
+     * The file itself is not evicted by this call even if it exceeds the size of the store.
+     */
+    @Synchronized
+    fun add(file: File) {
+        load()
+        val key = file.absoluteFile
+        val storedFile = files.getOrPut(key) { StoredFile() }
+        size += key.length() - storedFile.size
+        storedFile.size = key.length()
+        downloads++
+        evict(key)
+    }
+
+    /**
+     * Marks the file as recently used, it is called when a stored file is used instead of downloading.
+     */
+    @Synchronized
+    fun touch(file: File) {
+        load()
+        if (files[file.absoluteFile] != null)
+            reuses++
+    }
+
+    /**
+     * Protects the file from eviction until it is [released][unpin], pins are counted.
+     */
+    @Synchronized
+    fun pin(file: File) {
+        load()
+        val key = file.absoluteFile
+        val storedFile = files.getOrPut(key) {
+            size += key.length()
+            StoredFile(key.length())
+        }
+        storedFile.pins++
+    }
+
+    @Synchronized
+    fun unpin(file: File) {
+        val storedFile = files[file.absoluteFile] ?: return
+        if (storedFile.pins > 0)
+            storedFile.pins--
+        evict(null)
+    }
+
+    @Synchronized
+    fun stats(): ArtifactStoreStats {
+        load()
+        return ArtifactStoreStats(files = files.size, size = size, maxSize = maxSize,
+                pinned = files.values.count { it.pins > 0 }, downloads = downloads, reuses = reuses,
+                evictions = evictions, evictedSize = evictedSize)
+    }
+
+    /**
+     * Deletes the least recently used files which are not pinned until the size of the store
+     * does not exceed [maxSize], the specified file is kept.
+     */
+    private fun evict(keep: File?) {
+        val it = files.entries.iterator()
+        while (size > maxSize && it.hasNext()) {
+            val (file, storedFile) = it.next()
+            if (storedFile.pins > 0 || file == keep)
+                continue
+            if (file.exists() && !file.delete()) {
+                log.warn("$file has not been deleted")
+                continue
+            }
+            it.remove()
+            size -= storedFile.size
+            evictions++
+            evictedSize += storedFile.size
+        }
+    }
+
+    private fun load() {
+        if (loaded)
+            return
+        loaded = true
+        directory.walkTopDown()
+                .filter { it.isFile }
+                .map { it.absoluteFile }
+                .sortedBy { it.lastModified() }
+                .forEach {
+                    files[it] = StoredFile(it.length())
+                    size += it.length()
+                }
+        log.info("${files.size} files of $size bytes have been found in $directory")
+        evict(null)
+    }
+
+    private class StoredFile(var size: Long = 0, var pins: Int = 0)
+
+    companion object {
+        /**
+         * The store in the working directory which is shared by all indexers.
+         */
+        val default by lazy { ArtifactStore(File(Configuration.artifactStoreDir), Configuration.artifactStoreSize) }
+
+        /**
+         * The store of class fragments, see `ClassFragmentStore`.
+         */
+        val fragments by lazy { ArtifactStore(File(Configuration.classFragmentsDir), Configuration.classFragmentsSize) }
+    }
+}
+
+/**
+ * State of [ArtifactStore], it is shown by the `/stats/artifactStore` endpoint.
+ */
+data class ArtifactStoreStats(
+        val files: Int,
+        val size: Long,
+        val maxSize: Long,
+        val pinned: Int,
+        val downloads: Long,
+        val reuses: Long,
+        val evictions: Long,
+        val evictedSize: Long
+)
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import java.util.*
+
+private const val DEFAULT_MAX_OVERLAY_SIZE = 4096
+private val NO_IDS = IntArray(0)
+
+/**
+ * In-memory reverse dependency graph of artifacts, it is used to find artifacts
+ * which depend on the specified ones directly or transitively.
+ *
+ * Dependents are stored in compressed sparse row format, dependents of the artifact `id` are
+ * `dependents[offsets[id] until offsets[id + 1]]`. Dependencies which are added after the graph
+ * is built are kept in a small overlay and merged into these arrays when it grows too large.
+ * Queries are lock-free and work with a consistent snapshot, updates are serialized.
+ */
+class DependencyGraph(dependencies: DependencyList = DependencyList(),
+                      private val maxOverlaySize: Int = DEFAULT_MAX_OVERLAY_SIZE) {
+    @Volatile
+    private var snapshot = Snapshot(Csr.build(dependencies), emptyMap(), 0)
+
+    /**
+     * Adds dependencies of the artifact with the specified id.
+     */
+    @Synchronized
+    fun addDependencies(artifactId: Int, dependencyIds: Collection<Int>) {
+        if (dependencyIds.isEmpty())
+            return
+        val s = snapshot
+        val overlay = HashMap(s.overlay)
+        dependencyIds.forEach { depId -> overlay[depId] = (overlay[depId] ?: NO_IDS) + artifactId }
+        val overlaySize = s.overlaySize + dependencyIds.size
+        snapshot = if (overlaySize <= maxOverlaySize) {
+            Snapshot(s.csr, overlay, overlaySize)
+        } else {
+            Snapshot(s.csr.merge(overlay), emptyMap(), 0)
+        }
+    }
+
+    /**
+     * Returns ids of artifacts which depend on any of the specified ones at most
+     * through [maxDepth] dependencies, the specified artifacts are not included.
+     * Negative [maxDepth] means that the depth is not limited.
+     */
+    fun dependents(artifactIds: Collection<Int>, maxDepth: Int): List<Int> {
+        val s = snapshot
+        val visited = BitSet()
+        artifactIds.forEach { visited.set(it) }
+        val result = ArrayList<Int>()
+        // Breadth-first search, the frontier contains dependents found at the previous depth
+        var frontier: Collection<Int> = artifactIds
+        var depth = 0
+        while (!frontier.isEmpty() && (maxDepth < 0 || depth < maxDepth)) {
+            val next = ArrayList<Int>()
+            for (id in frontier) {
+                s.forEachDependent(id) { dependent ->
+                    if (!visited.get(dependent)) {
+                        visited.set(dependent)
+                        next.add(dependent)
+                    }
+                }
+            }
+            result.addAll(next)
+            frontier = next
+            depth++
+        }
+        return result
+    }
+
+    private class Snapshot(val csr: Csr, val overlay: Map<Int, IntArray>, val overlaySize: Int) {
+        inline fun forEachDependent(artifactId: Int, action: (Int) -> Unit) {
+            csr.forEachDependent(artifactId, action)
+            overlay[artifactId]?.forEach(action)
+        }
+    }
+
+    private class Csr(val offsets: IntArray, val dependents: IntArray) {
+        inline fun forEachDependent(artifactId: Int, action: (Int) -> Unit) {
+            if (artifactId < 0 || artifactId + 1 >= offsets.size)
+                return
+            for (i in offsets[artifactId] until offsets[artifactId + 1])
+                action(dependents[i])
+        }
+
+        fun merge(overlay: Map<Int, IntArray>): Csr {
+            val dependencies = DependencyList()
+            for (depId in 0 until offsets.size - 1)
+                forEachDependent(depId) { dependencies.add(it, depId) }
+            for ((depId, ids) in overlay)
+                ids.forEach { dependencies.add(it, depId) }
+            return build(dependencies)
+        }
+
+        companion object {
+            fun build(dependencies: DependencyList): Csr {
+                var maxId = -1
+                for (i in 0 until dependencies.size)
+                    maxId = maxOf(maxId, dependencies.dependencyIds[i])
+                // Count dependents of every artifact, then convert counts to offsets
+                val offsets = IntArray(maxId + 2)
+                for (i in 0 until dependencies.size)
+                    offsets[dependencies.dependencyIds[i] + 1]++
+                for (id in 1 until offsets.size)
+                    offsets[id] += offsets[id - 1]
+                val positions = offsets.copyOf()
+                val dependents = IntArray(dependencies.size)
+                for (i in 0 until dependencies.size)
+                    dependents[positions[dependencies.dependencyIds[i]]++] = dependencies.artifactIds[i]
+                return Csr(offsets, dependents)
+            }
+        }
+    }
+}
+
+/**
+ * Growable list of "artifact depends on dependency" pairs which is used to build [DependencyGraph].
+ */
+class DependencyList {
+    internal var artifactIds = IntArray(16)
+    internal var dependencyIds = IntArray(16)
+    var size = 0
+        private set
+
+    fun add(artifactId: Int, dependencyId: Int) {
+        if (size == artifactIds.size) {
+            artifactIds = artifactIds.copyOf(size * 2)
+            dependencyIds = dependencyIds.copyOf(size * 2)
+        }
+        artifactIds[size] = artifactId
+        dependencyIds[size] = dependencyId
+        size++
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.WithId
+import org.eclipse.aether.util.version.GenericVersionScheme
+import org.eclipse.aether.version.Version
+import java.util.*
+
+/**
+ * Coordinates of artifact except for version.
+ */
+data class ArtifactKey(val groupId: String, val artifactId: String, val type: String?, val classifier: String?) {
+    constructor(artifact: Artifact) : this(artifact.groupId, artifact.artifactId, artifact.type, artifact.classifier)
+}
+
+/**
+ * Keeps versions of artifacts with the same [ArtifactKey] sorted, so that artifacts
+ * can be ordered by version using precomputed ranks without parsing the versions again.
+ */
+class VersionCatalog(artifacts: Collection<WithId<Artifact>> = emptyList()) {
+    private val versionScheme = GenericVersionScheme()
+    private val versions = HashMap<ArtifactKey, ArrayList<VersionEntry>>()
+    // Ranks by artifact ids, 0 for unknown artifacts
+    private var ranks = IntArray(0)
+    // Versions of artifacts with the same key by artifact ids
+    private var groups = arrayOfNulls<List<VersionEntry>>(0)
+    var size = 0
+        private set
+
+    init {
+        for ((key, group) in artifacts.groupBy { ArtifactKey(it.value) }) {
+            val entries = group.mapTo(ArrayList<VersionEntry>()) { VersionEntry(it.id, versionScheme.parseVersion(it.value.version)) }
+            entries.sort()
+            versions[key] = entries
+            updateRanks(entries, 0)
+        }
+        size = artifacts.size
+    }
+
+    /**
+     * Adds the specified artifact to this catalog if it has not been added yet.
+     */
+    @Synchronized
+    fun add(artifact: WithId<Artifact>) {
+        if (rank(artifact.id) != 0)
+            return
+        val entries = versions.getOrPut(ArtifactKey(artifact.value)) { ArrayList() }
+        val entry = VersionEntry(artifact.id, versionScheme.parseVersion(artifact.value.version))
+        val index = Collections.binarySearch(entries, entry)
+        val insertionIndex = if (index < 0) -index - 1 else index
+        entries.add(insertionIndex, entry)
+        updateRanks(entries, insertionIndex)
+        size++
+    }
+
+    /**
+     * Returns ranks of the specified artifacts, an artifact with a newer version has a greater rank
+     * than another artifact with the same [ArtifactKey]. Unknown artifacts have the lowest rank.
+     */
+    @Synchronized
+    fun ranks(artifactIds: List<Int>): IntArray = IntArray(artifactIds.size) { rank(artifactIds[it]) }
+
+    /**
+     * Returns the number of newer versions of every specified artifact, 0 for the newest versions
+     * and for unknown artifacts. Unlike ranks, ages are comparable for artifacts with different keys.
+     */
+    @Synchronized
+    fun ages(artifactIds: List<Int>): IntArray = IntArray(artifactIds.size) {
+        val artifactId = artifactIds[it]
+        val group = if (artifactId < groups.size) groups[artifactId] else null
+        if (group == null) 0 else group.size - rank(artifactId)
+    }
+
+    private fun rank(artifactId: Int) = if (artifactId < ranks.size) ranks[artifactId] else 0
+
+    private fun updateRanks(entries: List<VersionEntry>, fromIndex: Int) {
+        val maxId = entries.subList(fromIndex, entries.size).maxBy { it.artifactId }?.artifactId ?: return
+        if (maxId >= ranks.size) {
+            ranks = ranks.copyOf(maxOf(maxId + 1, ranks.size * 2))
+            groups = groups.copyOf(ranks.size)
+        }
+        for (i in fromIndex until entries.size) {
+            ranks[entries[i].artifactId] = i + 1
+            groups[entries[i].artifactId] = entries
+        }
+    }
+
+    private class VersionEntry(val artifactId: Int, val version: Version) : Comparable<VersionEntry> {
+        override fun compareTo(other: VersionEntry) = version.compareTo(other.version)
+    }
+}
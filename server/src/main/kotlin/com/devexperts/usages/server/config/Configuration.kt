@@ -26,6 +26,62 @@ interface PropertiesConfiguration : Config {
     @Config.Key("usages.workDir")
     @Config.DefaultValue("~/.usages")
     fun workDir(): String
+
+    @Config.Key("usages.requestThreads")
+    @Config.DefaultValue("8")
+    fun requestThreads(): Int
+
+    @Config.Key("usages.requestParallelism")
+    @Config.DefaultValue("4")
+    fun requestParallelism(): Int
+
+    @Config.Key("usages.dependencyDepth")
+    @Config.DefaultValue("3")
+    fun dependencyDepth(): Int
+
+    @Config.Key("usages.resultCacheSize")
+    @Config.DefaultValue("200000")
+    fun resultCacheSize(): Long
+
+    @Config.Key("usages.scanResultCacheSize")
+    @Config.DefaultValue("268435456")
+    fun scanResultCacheSize(): Long
+
+    @Config.Key("usages.scanResultCacheSoftSpill")
+    @Config.DefaultValue("true")
+    fun scanResultCacheSoftSpill(): Boolean
+
+    @Config.Key("usages.classFragments")
+    @Config.DefaultValue("true")
+    fun classFragments(): Boolean
+
+    @Config.Key("usages.classFragmentsSize")
+    @Config.DefaultValue("2147483648")
+    fun classFragmentsSize(): Long
+
+    @Config.Key("usages.backgroundAnalysisThreads")
+    @Config.DefaultValue("1")
+    fun backgroundAnalysisThreads(): Int
+
+    @Config.Key("usages.backgroundAnalysisAttempts")
+    @Config.DefaultValue("3")
+    fun backgroundAnalysisAttempts(): Int
+
+    @Config.Key("usages.artifactStoreSize")
+    @Config.DefaultValue("10737418240")
+    fun artifactStoreSize(): Long
+
+    @Config.Key("usages.slowRequestMillis")
+    @Config.DefaultValue("10000")
+    fun slowRequestMillis(): Long
+
+    @Config.Key("usages.jobsDiskSize")
+    @Config.DefaultValue("1073741824")
+    fun jobsDiskSize(): Long
+
+    @Config.Key("usages.jobTtlMinutes")
+    @Config.DefaultValue("60")
+    fun jobTtlMinutes(): Long
 }
 
 private val configuration = ConfigFactory.create(PropertiesConfiguration::class.java, System.getProperties())
@@ -34,6 +90,23 @@ object Configuration {
     val workDir = resolvePath(configuration.workDir())
     val settingsFile = workDirFile("settings.xml")
     val dbFile = workDirFile("usages_db")
+    val requestThreads = configuration.requestThreads()
+    val requestParallelism = configuration.requestParallelism()
+    val dependencyDepth = configuration.dependencyDepth()
+    val resultCacheSize = configuration.resultCacheSize()
+    val scanResultCacheSize = configuration.scanResultCacheSize()
+    val scanResultCacheSoftSpill = configuration.scanResultCacheSoftSpill()
+    val classFragments = configuration.classFragments()
+    val classFragmentsDir = workDirFile("fragments")
+    val classFragmentsSize = configuration.classFragmentsSize()
+    val backgroundAnalysisThreads = configuration.backgroundAnalysisThreads()
+    val backgroundAnalysisAttempts = configuration.backgroundAnalysisAttempts()
+    val artifactStoreDir = workDirFile("local-repository")
+    val artifactStoreSize = configuration.artifactStoreSize()
+    val slowRequestMillis = configuration.slowRequestMillis()
+    val jobsDir = workDirFile("jobs")
+    val jobsDiskSize = configuration.jobsDiskSize()
+    val jobTtlMinutes = configuration.jobTtlMinutes()
 
     private fun resolvePath(file: String): String {
         var f = file
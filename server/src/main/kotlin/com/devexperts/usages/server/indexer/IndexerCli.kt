@@ -19,6 +19,7 @@ package com.devexperts.usages.server.indexer
 
 import com.devexperts.logging.Logging
 import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.analyzer.AnalysisQueue
 import com.devexperts.usages.server.initDatabase
 import com.devexperts.usages.server.config.Configuration
 import com.devexperts.usages.server.config.readSettings
@@ -48,6 +49,8 @@ fun scan(indexers: List<MavenIndexer>) = runBlocking {
         try {
             jobs += launch(CommonPool) {
                 indexer.scan()
+                // Queued artifacts are analyzed by the server
+                AnalysisQueue.enqueueNotAnalyzed(indexer.id, indexer.supportedArtifactTypes)
             }
         } catch (e: Throwable) {
             cliLog.error("Error during ${indexer.id} repository indexing", e)
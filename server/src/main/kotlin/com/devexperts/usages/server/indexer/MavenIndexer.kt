@@ -18,13 +18,16 @@
 package com.devexperts.usages.server.indexer
 
 import com.devexperts.logging.Logging
+import com.devexperts.usages.analyzer.concurrent.Cancellation
 import com.devexperts.usages.api.Artifact
 import com.devexperts.usages.server.artifacts.ArtifactManager
+import com.devexperts.usages.server.artifacts.ArtifactStore
 import com.devexperts.usages.server.config.RepositorySetting
 import com.devexperts.usages.server.config.RepositoryType
 import com.devexperts.usages.server.config.Settings
 import com.devexperts.util.TimePeriod
 import java.io.File
+import java.util.concurrent.CancellationException
 
 abstract class MavenIndexer(
         repositorySetting: RepositorySetting, // delay between repository indexing runs.
@@ -38,6 +41,11 @@ abstract class MavenIndexer(
 
     protected abstract val log: Logging
 
+    /**
+     * Store of downloaded artifacts, files returned by [downloadArtifact] are kept in it.
+     */
+    val artifactStore: ArtifactStore get() = ArtifactStore.default
+
     /**
      * Scans maven repository structure,
      * stores information about artifacts and their transitive dependencies.
@@ -47,8 +55,9 @@ abstract class MavenIndexer(
     /**
      * Downloads the specified artifact from the repository.
      * Returns null if the artifact has not been downloaded.
+     * Throws [CancellationException] if downloading has been cancelled via the specified [cancellation].
      */
-    abstract fun downloadArtifact(artifact: Artifact): File?
+    abstract fun downloadArtifact(artifact: Artifact, cancellation: Cancellation): File?
 
     /**
      * Store information about the artifact into the [ArtifactManager]
@@ -18,6 +18,7 @@
 package com.devexperts.usages.server.indexer
 
 import com.devexperts.logging.Logging
+import com.devexperts.usages.analyzer.concurrent.Cancellation
 import com.devexperts.usages.api.Artifact
 import com.devexperts.usages.server.analyzer.toClassName
 import com.devexperts.usages.server.config.Configuration
@@ -40,6 +41,7 @@ import org.codehaus.plexus.DefaultPlexusContainer
 import org.codehaus.plexus.PlexusConstants
 import org.codehaus.plexus.PlexusContainer
 import org.eclipse.aether.AbstractRepositoryListener
+import org.eclipse.aether.DefaultRepositorySystemSession
 import org.eclipse.aether.RepositoryEvent
 import org.eclipse.aether.RepositorySystem
 import org.eclipse.aether.RepositorySystemSession
@@ -53,10 +55,14 @@ import org.eclipse.aether.resolution.ArtifactRequest
 import org.eclipse.aether.resolution.ArtifactResolutionException
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory
 import org.eclipse.aether.spi.connector.transport.TransporterFactory
+import org.eclipse.aether.transfer.AbstractTransferListener
+import org.eclipse.aether.transfer.TransferCancelledException
+import org.eclipse.aether.transfer.TransferEvent as AetherTransferEvent
 import org.eclipse.aether.transport.file.FileTransporterFactory
 import org.eclipse.aether.transport.http.HttpTransporterFactory
 import org.eclipse.aether.util.repository.AuthenticationBuilder
 import java.io.File
+import java.util.concurrent.CancellationException
 import java.util.stream.Collectors
 
 class NexusMavenIndexer(repositorySetting: RepositorySetting,
@@ -66,7 +72,7 @@ class NexusMavenIndexer(repositorySetting: RepositorySetting,
 
     private val cacheDir = File(Configuration.workDir + File.separator + "cache" + File.separator + id)
     private val centralIndexDir = File(Configuration.workDir + File.separator + "central-index" + File.separator + id)
-    private val localRepositoryDir = File(Configuration.workDir + File.separator + "local-repository" + File.separator + id)
+    private val localRepositoryDir = File(artifactStore.directory, id)
 
     private val authenticationInfo: AuthenticationInfo = AuthenticationInfo()
     private val remoteRepository: RemoteRepository
@@ -177,15 +183,16 @@ class NexusMavenIndexer(repositorySetting: RepositorySetting,
         storeArtifactInfo(artifact, dependencies, packages)
     }
 
-    override fun downloadArtifact(artifact: Artifact): File? {
+    override fun downloadArtifact(artifact: Artifact, cancellation: Cancellation): File? {
         try {
             // Create request in order to get aether's artifact
             val request = ArtifactRequest()
                     .setArtifact(artifactToAetherArtifact(artifact))
                     .addRepository(remoteRepository)
-            // Perform the request,
-            val aetherArtifact = repositorySystem
-                    .resolveArtifact(repositorySystemSession, request).artifact
+            // Perform the request in the session which aborts transfers on cancellation
+            val session = DefaultRepositorySystemSession(repositorySystemSession)
+                    .setTransferListener(CancellableTransferListener(cancellation))
+            val aetherArtifact = repositorySystem.resolveArtifact(session, request).artifact
             // Get [File] or return null if artifact has not been resolved
             val file = aetherArtifact?.file
             if (file == null) {
@@ -195,6 +202,8 @@ class NexusMavenIndexer(repositorySetting: RepositorySetting,
             // todo fill package information here if needed
             return file
         } catch (e: ArtifactResolutionException) {
+            if (cancellation.isCancelled)
+                throw CancellationException("Downloading $artifact has been cancelled")
             log.warn("Downloading $artifact failed, error during resolution", e)
             return null
         }
@@ -255,6 +264,27 @@ class NexusMavenIndexer(repositorySetting: RepositorySetting,
         override fun artifactDescriptorMissing(event: RepositoryEvent) {
             log.warn("Invalid artifact descriptor,  ${this@NexusMavenIndexer.id} indexing: $event")
         }
+
+        override fun artifactDownloaded(event: RepositoryEvent) {
+            event.file?.let { artifactStore.add(it) }
+        }
+
+        override fun artifactResolved(event: RepositoryEvent) {
+            // Resolved artifacts which have not been downloaded are taken from the store
+            if (event.repository is LocalRepository)
+                event.artifact?.file?.let { artifactStore.touch(it) }
+        }
+    }
+
+    private class CancellableTransferListener(private val cancellation: Cancellation) : AbstractTransferListener() {
+        override fun transferInitiated(event: AetherTransferEvent) = checkCancelled()
+
+        override fun transferProgressed(event: AetherTransferEvent) = checkCancelled()
+
+        private fun checkCancelled() {
+            if (cancellation.isCancelled)
+                throw TransferCancelledException()
+        }
     }
 
     private inner class ResourceFetcherListener : AbstractTransferListener() {
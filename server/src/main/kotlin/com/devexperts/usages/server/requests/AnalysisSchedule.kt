@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+/**
+ * Orders artifacts which should be analyzed for a request by estimated cost. Artifacts with a cached
+ * usages report are cheap to analyze and go first, artifacts which should be downloaded go last.
+ * Newer versions go first in both groups since their usages are usually the most interesting ones.
+ *
+ * The first [backgroundDownloads] downloads are moved to the head of the schedule, so that
+ * they are in progress while cached artifacts are analyzed and their usages are streamed.
+ */
+fun <T> scheduleAnalyses(artifacts: List<T>, backgroundDownloads: Int,
+                         isCached: (T) -> Boolean, age: (T) -> Int): List<T> {
+    val (cached, notCached) = artifacts.partition(isCached)
+    val downloads = notCached.sortedBy(age)
+    if (cached.isEmpty())
+        return downloads
+    val startedDownloads = minOf(maxOf(backgroundDownloads, 0), downloads.size)
+    val schedule = ArrayList<T>(artifacts.size)
+    schedule += downloads.subList(0, startedDownloads)
+    schedule += cached.sortedBy(age)
+    schedule += downloads.subList(startedDownloads, downloads.size)
+    return schedule
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.WithId
+import com.devexperts.usages.server.analyzer.MemberUsageQuery
+
+/**
+ * Groups requests of a batch by their candidate artifacts, so that every artifact is analyzed once for all of them.
+ * Usages for requests which [expand to derived members][MemberUsageQuery.expandsToDerived] are looked up
+ * in the usages index only, so their candidate artifacts [have to be stored][mustBeStored] to the index
+ * by the request itself, it is not enough to read usages from their cached reports.
+ */
+class BatchPlan(private val queries: List<MemberUsageQuery>, candidatesByRequest: List<List<WithId<Artifact>>>) {
+    private val requestsByArtifact = LinkedHashMap<WithId<Artifact>, MutableList<Int>>()
+    private val derivedCandidates = HashSet<WithId<Artifact>>()
+
+    init {
+        candidatesByRequest.forEachIndexed { i, candidates ->
+            candidates.forEach { requestsByArtifact.getOrPut(it) { ArrayList() } += i }
+            if (queries[i].expandsToDerived)
+                derivedCandidates += candidates
+        }
+    }
+
+    /**
+     * Candidate artifacts of all requests in the order they are found.
+     */
+    val artifacts: Set<WithId<Artifact>>
+        get() = requestsByArtifact.keys
+
+    /**
+     * Returns indices of requests which the artifact is a candidate of.
+     */
+    fun requests(artifact: WithId<Artifact>): List<Int> = requestsByArtifact[artifact] ?: emptyList()
+
+    /**
+     * Returns indices of requests which usages are taken from the artifact directly,
+     * i.e. the requests which do not expand to derived members.
+     */
+    fun directRequests(artifact: WithId<Artifact>): List<Int> =
+            requests(artifact).filter { !queries[it].expandsToDerived }
+
+    /**
+     * Returns `true` if the artifact is a candidate of a request which expands to derived members,
+     * so the artifact has to be stored to the usages index before they are looked up.
+     */
+    fun mustBeStored(artifact: WithId<Artifact>) = derivedCandidates.contains(artifact)
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.CompleteMessage
+import com.devexperts.usages.api.MemberUsage
+import com.devexperts.usages.api.MemberUsageRequest
+import com.devexperts.usages.api.MemberUsagesBatchMessage
+
+/**
+ * Converts usages found for requests of a batch to [MemberUsagesBatchMessage]s and limits
+ * the number of usages of every request by its [MemberUsageRequest.maxUsages].
+ * It is not thread-safe, usages should be passed sequentially.
+ */
+class BatchUsagesLimiter(private val maxUsages: List<Int>) {
+    private val counts = IntArray(maxUsages.size)
+    private val exceeded = BooleanArray(maxUsages.size)
+    private var exceededRequests = 0
+
+    /**
+     * Returns `true` if all requests have found more usages than they need.
+     */
+    val allExceeded: Boolean
+        get() = exceededRequests == maxUsages.size
+
+    /**
+     * Returns messages for the specified usages found for the request with the specified index.
+     * The last message is [CompleteMessage.USAGES_NUMBER_EXCEED] if the request has found too many usages.
+     */
+    fun messages(requestIndex: Int, usages: List<MemberUsage>): List<MemberUsagesBatchMessage> {
+        if (exceeded[requestIndex])
+            return emptyList()
+        val max = maxUsages[requestIndex]
+        val messages = ArrayList<MemberUsagesBatchMessage>(usages.size)
+        for (usage in usages) {
+            if (max > 0 && counts[requestIndex] == max) {
+                exceeded[requestIndex] = true
+                exceededRequests++
+                messages += MemberUsagesBatchMessage(requestIndex, complete = CompleteMessage.USAGES_NUMBER_EXCEED)
+                break
+            }
+            counts[requestIndex]++
+            messages += MemberUsagesBatchMessage(requestIndex, usage = usage)
+        }
+        return messages
+    }
+
+    /**
+     * Returns [CompleteMessage.COMPLETE] messages for all requests which have not exceeded their limits.
+     */
+    fun completeMessages() = maxUsages.indices.filter { !exceeded[it] }
+            .map { MemberUsagesBatchMessage(it, complete = CompleteMessage.COMPLETE) }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.logging.Logging
+import com.devexperts.usages.analyzer.concurrent.Cancellation
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.thread
+import kotlin.concurrent.withLock
+
+/**
+ * Executes tasks of find usages requests (e.g. artifact analysis) on a dedicated pool of [threads] threads.
+ *
+ * Every request has its own queue of tasks and can execute at most [requestParallelism] tasks at once.
+ * Free threads take tasks from the request queues in round-robin order,
+ * so that a large request cannot starve the concurrent ones.
+ */
+class RequestExecutor(val name: String, val threads: Int, val requestParallelism: Int) {
+    private val log = Logging.getLogging(RequestExecutor::class.java)
+
+    private val lock = ReentrantLock()
+    private val hasReadyRequests = lock.newCondition()
+    // Requests which have queued tasks and do not exceed their parallelism, in round-robin order
+    private val readyRequests = ArrayDeque<RequestTasks>()
+    private val requests = LinkedHashSet<RequestTasks>()
+
+    init {
+        repeat(threads) { i ->
+            thread(name = "$name-$i", isDaemon = true) { runWorker() }
+        }
+    }
+
+    /**
+     * Creates a queue for the tasks of the request with the specified id.
+     * The returned [RequestTasks] should be closed after the request completion.
+     */
+    fun newRequest(requestId: String): RequestTasks = lock.withLock {
+        val request = RequestTasks(requestId)
+        requests += request
+        request
+    }
+
+    /**
+     * Cancels the request with the specified id, see [RequestTasks.close].
+     * Returns `false` if there is no such request.
+     */
+    fun cancel(requestId: String): Boolean {
+        val cancelled = lock.withLock { requests.filter { it.requestId == requestId } }
+        cancelled.forEach { it.close() }
+        return !cancelled.isEmpty()
+    }
+
+    /**
+     * Returns the current state of this executor.
+     */
+    fun stats(): RequestExecutorStats = lock.withLock {
+        RequestExecutorStats(
+                threads = threads,
+                requestParallelism = requestParallelism,
+                requests = requests.map { RequestStats(it.requestId, it.tasks.size, it.activeTasks) }
+        )
+    }
+
+    private fun runWorker() {
+        while (true) {
+            val (request, task) = lock.withLock {
+                while (readyRequests.isEmpty())
+                    hasReadyRequests.awaitUninterruptibly()
+                // Take the first ready request and move it to the end of the queue if it is still ready
+                val request = readyRequests.pollFirst()
+                request.ready = false
+                val task = request.tasks.pollFirst()
+                request.activeTasks++
+                request.updateReadiness()
+                Pair(request, task)
+            }
+            try {
+                task.run()
+            } catch (e: Throwable) {
+                log.error("Unexpected error in task of request ${request.requestId}", e)
+            } finally {
+                lock.withLock {
+                    request.activeTasks--
+                    request.updateReadiness()
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue of tasks of a single request. It is also the [Cancellation] of the request tasks,
+     * it becomes cancelled as soon as the request is closed.
+     */
+    inner class RequestTasks internal constructor(val requestId: String) : AutoCloseable, Cancellation {
+        internal val tasks = ArrayDeque<QueuedTask<*>>()
+        internal var activeTasks = 0
+        internal var ready = false
+        @Volatile private var closed = false
+
+        override fun isCancelled() = closed
+
+        /**
+         * Queues the specified task, the returned future is cancelled
+         * if this request is closed before the task is started.
+         */
+        fun <T> submit(task: () -> T): CompletableFuture<T> {
+            val queuedTask = QueuedTask(task)
+            lock.withLock {
+                if (closed) {
+                    queuedTask.future.cancel(false)
+                } else {
+                    tasks.addLast(queuedTask)
+                    updateReadiness()
+                }
+            }
+            return queuedTask.future
+        }
+
+        /**
+         * Removes not started tasks from the queue and unregisters this request.
+         * Already running tasks are not interrupted, but they should check [isCancelled].
+         */
+        override fun close() {
+            val removed = lock.withLock {
+                closed = true
+                requests -= this
+                if (ready) {
+                    readyRequests.remove(this)
+                    ready = false
+                }
+                val removed = ArrayList(tasks)
+                tasks.clear()
+                removed
+            }
+            // Not started tasks are not executed, complete their futures
+            if (!removed.isEmpty())
+                log.debug("[$requestId] ${removed.size} queued tasks have been cancelled")
+            removed.forEach { it.future.cancel(false) }
+        }
+
+        // Should be invoked under lock
+        internal fun updateReadiness() {
+            val shouldBeReady = !tasks.isEmpty() && activeTasks < requestParallelism
+            if (shouldBeReady && !ready) {
+                readyRequests.addLast(this)
+                hasReadyRequests.signal()
+            } else if (!shouldBeReady && ready) {
+                readyRequests.remove(this)
+            }
+            ready = shouldBeReady
+        }
+    }
+}
+
+internal class QueuedTask<T>(private val task: () -> T) : Runnable {
+    val future = CompletableFuture<T>()
+
+    override fun run() {
+        if (future.isDone)
+            return
+        try {
+            future.complete(task())
+        } catch (e: Throwable) {
+            future.completeExceptionally(e)
+        }
+    }
+}
+
+/**
+ * State of [RequestExecutor], it is shown by the `/stats/executor` endpoint.
+ */
+data class RequestExecutorStats(
+        val threads: Int,
+        val requestParallelism: Int,
+        val requests: List<RequestStats>
+) {
+    val queuedTasks = requests.sumBy { it.queuedTasks }
+    val activeTasks = requests.sumBy { it.activeTasks }
+}
+
+data class RequestStats(val requestId: String, val queuedTasks: Int, val activeTasks: Int)
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.logging.Logging
+import com.devexperts.usages.analyzer.AnalysisPhase
+import com.devexperts.usages.analyzer.AnalysisTimer
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+
+private const val RECENT_SLOW_REQUESTS = 16
+
+/**
+ * Phases of find usages requests which are timed by [RequestTimer].
+ * Phases of artifact analysis have the same names as the corresponding [AnalysisPhase]s.
+ */
+enum class RequestPhase {
+    /**
+     * Lookup of artifacts with the requested package and artifacts which depend on them.
+     */
+    CANDIDATES,
+    /**
+     * Filtering of candidate artifacts by the search scope.
+     */
+    SCOPE_FILTER,
+    /**
+     * Lookup of usages in the usages index.
+     */
+    INDEX_LOOKUP,
+    DOWNLOAD,
+    REPORT_READ,
+    SCAN,
+    USAGES_FILTER,
+    /**
+     * Conversion of found usages to response messages.
+     */
+    SERIALIZATION
+}
+
+/**
+ * Collects timings of find usages requests. Every request has its own [RequestTimer],
+ * it is merged to the total timings when the request is finished.
+ * Requests which take more than [slowRequestMillis] are logged with their timings.
+ */
+class RequestMetrics(val slowRequestMillis: Long) {
+    private val log = Logging.getLogging(RequestMetrics::class.java)
+
+    private val activeRequests = LinkedHashSet<RequestTimer>()
+    private val recentSlowRequests = ArrayDeque<RequestTimings>()
+    private val phaseCounts = LongArray(RequestPhase.values().size)
+    private val phaseNanos = LongArray(RequestPhase.values().size)
+    private val phaseMaxNanos = LongArray(RequestPhase.values().size)
+    private var requests = 0L
+    private var slowRequests = 0L
+    private var requestNanos = 0L
+
+    /**
+     * Starts timing of the request with the specified id,
+     * the returned timer should be passed to [finish] after the request completion.
+     */
+    @Synchronized
+    fun start(requestId: String): RequestTimer {
+        val timer = RequestTimer(requestId)
+        activeRequests += timer
+        return timer
+    }
+
+    /**
+     * Finishes timing of the request and merges its timings to the total ones.
+     */
+    fun finish(timer: RequestTimer) {
+        val timings = timer.timings()
+        synchronized(this) {
+            if (!activeRequests.remove(timer))
+                return
+            requests++
+            requestNanos += timer.elapsedNanos()
+            for (phase in RequestPhase.values()) {
+                val i = phase.ordinal
+                phaseCounts[i] += timer.count(phase)
+                phaseNanos[i] += timer.nanos(phase)
+                phaseMaxNanos[i] = maxOf(phaseMaxNanos[i], timer.nanos(phase))
+            }
+            if (timings.elapsedMillis < slowRequestMillis)
+                return
+            slowRequests++
+            if (recentSlowRequests.size == RECENT_SLOW_REQUESTS)
+                recentSlowRequests.pollFirst()
+            recentSlowRequests += timings
+        }
+        log.warn("[${timer.requestId}] Slow request took ${timings.elapsedMillis} ms, " +
+                timings.phases.entries.joinToString { "${it.key}=${it.value} ms" })
+    }
+
+    @Synchronized
+    fun stats() = RequestMetricsStats(
+            requests = requests,
+            slowRequests = slowRequests,
+            slowRequestMillis = slowRequestMillis,
+            totalMillis = toMillis(requestNanos),
+            phases = RequestPhase.values().map {
+                val i = it.ordinal
+                PhaseStats(it, phaseCounts[i], toMillis(phaseNanos[i]), toMillis(phaseMaxNanos[i]))
+            },
+            activeRequests = activeRequests.map { it.timings() },
+            recentSlowRequests = recentSlowRequests.toList()
+    )
+}
+
+/**
+ * Accumulates durations of phases of a single request. Tasks of a request are executed concurrently,
+ * so the total duration of phases may exceed the duration of the request.
+ */
+class RequestTimer internal constructor(val requestId: String) : AnalysisTimer {
+    private val startNanos = System.nanoTime()
+    private val counts = AtomicLongArray(RequestPhase.values().size)
+    private val nanos = AtomicLongArray(RequestPhase.values().size)
+
+    fun record(phase: RequestPhase, nanos: Long) {
+        counts.incrementAndGet(phase.ordinal)
+        this.nanos.addAndGet(phase.ordinal, nanos)
+    }
+
+    override fun record(phase: AnalysisPhase, nanos: Long) = record(RequestPhase.valueOf(phase.name), nanos)
+
+    /**
+     * Executes the specified action and records its duration for the specified phase.
+     */
+    inline fun <T> time(phase: RequestPhase, action: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return action()
+        } finally {
+            record(phase, System.nanoTime() - start)
+        }
+    }
+
+    fun count(phase: RequestPhase) = counts.get(phase.ordinal)
+
+    fun nanos(phase: RequestPhase) = nanos.get(phase.ordinal)
+
+    fun elapsedNanos() = System.nanoTime() - startNanos
+
+    /**
+     * Returns durations of the phases which have been recorded so far.
+     */
+    fun timings(): RequestTimings {
+        val phases = EnumMap<RequestPhase, Long>(RequestPhase::class.java)
+        for (phase in RequestPhase.values()) {
+            if (count(phase) > 0)
+                phases[phase] = toMillis(nanos(phase))
+        }
+        return RequestTimings(requestId, toMillis(elapsedNanos()), phases)
+    }
+}
+
+private fun toMillis(nanos: Long) = TimeUnit.NANOSECONDS.toMillis(nanos)
+
+/**
+ * State of [RequestMetrics], it is shown by the `/stats/metrics` endpoint.
+ */
+data class RequestMetricsStats(
+        val requests: Long,
+        val slowRequests: Long,
+        val slowRequestMillis: Long,
+        val totalMillis: Long,
+        val phases: List<PhaseStats>,
+        val activeRequests: List<RequestTimings>,
+        val recentSlowRequests: List<RequestTimings>
+)
+
+data class PhaseStats(val phase: RequestPhase, val count: Long, val totalMillis: Long, val maxMillis: Long)
+
+data class RequestTimings(val requestId: String, val elapsedMillis: Long, val phases: Map<RequestPhase, Long>)
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+/**
+ * Receives progress of a find usages request in terms of searched artifacts.
+ * Artifacts are processed concurrently, so its methods could be invoked from different threads.
+ */
+interface RequestProgress {
+    /**
+     * Invoked once the number of artifacts to be searched is known.
+     */
+    fun onArtifactsFound(artifacts: Int)
+
+    /**
+     * Invoked when the specified number of artifacts are searched, even if some of them have failed.
+     */
+    fun onArtifactsProcessed(artifacts: Int)
+
+    companion object {
+        val NONE = object : RequestProgress {
+            override fun onArtifactsFound(artifacts: Int) {}
+            override fun onArtifactsProcessed(artifacts: Int) {}
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.logging.Logging
+import com.devexperts.usages.api.MemberUsage
+import com.devexperts.usages.api.MemberUsageRequest
+import com.devexperts.usages.api.UsagesJobPage
+import com.devexperts.usages.api.UsagesJobState
+import com.devexperts.usages.api.UsagesJobStatus
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.springframework.http.HttpStatus
+import org.springframework.web.bind.annotation.ResponseStatus
+import reactor.core.Disposable
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+// Every CHECKPOINT_STEP-th usage position is remembered to read pages without reading all previous usages
+private const val CHECKPOINT_STEP = 64
+
+/**
+ * Store of find usages jobs. Usages found by jobs are written to files in the [directory],
+ * one JSON line per usage, so that they can be read by pages while jobs are running and after they complete.
+ *
+ * Finished jobs are removed [ttlMillis] after their completion. The total size of job files is bounded
+ * by [maxDiskSize], the oldest finished jobs are removed if it is exceeded, and if running jobs exceed it
+ * together, the largest of them fail. Jobs are not persisted, files of previous runs are removed on start.
+ */
+class UsagesJobStore(private val directory: File, private val maxDiskSize: Long, private val ttlMillis: Long,
+                     private val clock: () -> Long = System::currentTimeMillis) {
+    private val log = Logging.getLogging(UsagesJobStore::class.java)
+    private val objectMapper = ObjectMapper()
+    private val jobs = LinkedHashMap<String, UsagesJob>()
+
+    init {
+        directory.deleteRecursively()
+        directory.mkdirs()
+    }
+
+    /**
+     * Creates a new running job for the specified request.
+     */
+    @Synchronized
+    fun create(request: MemberUsageRequest): UsagesJob {
+        removeExpired()
+        val id = UUID.randomUUID().toString()
+        val job = UsagesJob(id, request)
+        jobs[id] = job
+        return job
+    }
+
+    /**
+     * Returns the job with the specified id or throws [JobNotFoundException] if it does not exist.
+     */
+    @Synchronized
+    fun get(id: String): UsagesJob {
+        removeExpired()
+        return jobs[id] ?: throw JobNotFoundException(id)
+    }
+
+    /**
+     * Cancels the job with the specified id if it is running and removes it with its usages.
+     */
+    fun remove(id: String) {
+        val job = synchronized(this) { jobs.remove(id) } ?: throw JobNotFoundException(id)
+        job.cancel()
+        job.delete()
+    }
+
+    /**
+     * Returns the total size of files of all jobs.
+     */
+    @Synchronized
+    fun diskSize() = jobs.values.sumByLong { it.bytes }
+
+    private fun removeExpired() {
+        val now = clock()
+        val it = jobs.values.iterator()
+        while (it.hasNext()) {
+            val job = it.next()
+            if (job.isFinished && job.finishedAt + ttlMillis <= now) {
+                it.remove()
+                job.delete()
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest finished jobs until the total size of job files fits [maxDiskSize],
+     * if there are no finished jobs, the largest running job fails and is removed.
+     */
+    private fun enforceDiskSize() {
+        var diskSize = diskSize()
+        while (diskSize > maxDiskSize) {
+            val finished = jobs.values.firstOrNull { it.isFinished }
+            if (finished == null) {
+                val largest = jobs.values.maxBy { it.bytes } ?: return
+                largest.complete(UsagesJobState.FAILED, "Found usages of running jobs exceed $maxDiskSize bytes")
+                continue
+            }
+            diskSize -= finished.bytes
+            jobs.remove(finished.id)
+            finished.delete()
+            log.info("Job ${finished.id} is removed, the total size of jobs exceeds $maxDiskSize bytes")
+        }
+    }
+
+    /**
+     * Find usages job, it is a [RequestProgress] of its request.
+     * Found usages are [append]ed by the request and the job is [finish]ed after its completion.
+     */
+    inner class UsagesJob internal constructor(val id: String, val request: MemberUsageRequest) : RequestProgress {
+        private val file = File(directory, "$id.json")
+        // The file is written while the job is running, it is closed after the job is finished
+        private var out: BufferedOutputStream? = BufferedOutputStream(FileOutputStream(file))
+        private var deleted = false
+        private var checkpoints = LongArray(16)
+        @Volatile private var state = UsagesJobState.RUNNING
+        private var error: String? = null
+        private var usages = 0
+        @Volatile private var artifacts = -1
+        private val processedArtifacts = AtomicInteger()
+        @Volatile internal var bytes = 0L
+            private set
+        @Volatile internal var finishedAt = 0L
+            private set
+        internal val isFinished: Boolean
+            get() = state != UsagesJobState.RUNNING
+        /**
+         * Subscription to the job request, it is disposed if the job is cancelled.
+         */
+        @Volatile var subscription: Disposable? = null
+
+        override fun onArtifactsFound(artifacts: Int) {
+            this.artifacts = artifacts
+        }
+
+        override fun onArtifactsProcessed(artifacts: Int) {
+            processedArtifacts.addAndGet(artifacts)
+        }
+
+        /**
+         * Writes the usage to the job file if the job is running,
+         * it fails the job if the file becomes too large.
+         */
+        fun append(usage: MemberUsage) {
+            val line = objectMapper.writeValueAsBytes(usage)
+            synchronized(this) {
+                val out = out ?: return
+                if (isFinished)
+                    return
+                if (usages % CHECKPOINT_STEP == 0) {
+                    val checkpoint = usages / CHECKPOINT_STEP
+                    if (checkpoint == checkpoints.size)
+                        checkpoints = checkpoints.copyOf(checkpoints.size * 2)
+                    checkpoints[checkpoint] = bytes
+                }
+                out.write(line)
+                out.write('\n'.toInt())
+                bytes += line.size + 1
+                usages++
+            }
+            if (bytes > maxDiskSize)
+                finish(UsagesJobState.FAILED, "Found usages exceed $maxDiskSize bytes")
+            else if (usages % CHECKPOINT_STEP == 0)
+                synchronized(this@UsagesJobStore) { enforceDiskSize() }
+        }
+
+        /**
+         * Finishes the job with the specified state if it is still running.
+         */
+        fun finish(state: UsagesJobState, error: String? = null) {
+            if (complete(state, error))
+                synchronized(this@UsagesJobStore) { enforceDiskSize() }
+        }
+
+        /**
+         * Finishes the job and closes its file, returns `false` if the job has been finished already.
+         */
+        internal fun complete(state: UsagesJobState, error: String?): Boolean {
+            synchronized(this) {
+                if (this.state != UsagesJobState.RUNNING)
+                    return false
+                out?.close()
+                out = null
+                this.error = error
+                finishedAt = clock()
+                this.state = state
+            }
+            if (state == UsagesJobState.FAILED || state == UsagesJobState.CANCELLED)
+                subscription?.dispose()
+            return true
+        }
+
+        fun cancel() = finish(UsagesJobState.CANCELLED)
+
+        @Synchronized
+        fun status() = UsagesJobStatus(id = id, request = request, state = state, artifacts = artifacts,
+                processedArtifacts = processedArtifacts.get(), usages = usages, error = error)
+
+        /**
+         * Returns at most [limit] usages starting from the [offset]-th found one.
+         */
+        @Synchronized
+        fun page(offset: Int, limit: Int): UsagesJobPage {
+            if (deleted)
+                throw JobNotFoundException(id)
+            val usages = ArrayList<MemberUsage>()
+            if (offset in 0..(this.usages - 1) && limit > 0) {
+                out?.flush()
+                FileInputStream(file).use { input ->
+                    input.channel.position(checkpoints[offset / CHECKPOINT_STEP])
+                    val lines = input.bufferedReader(Charsets.UTF_8).lineSequence()
+                    lines.drop(offset % CHECKPOINT_STEP).take(minOf(limit, this.usages - offset)).forEach {
+                        usages += objectMapper.readValue(it, MemberUsage::class.java)
+                    }
+                }
+            }
+            return UsagesJobPage(id = id, offset = offset, usages = usages, state = state)
+        }
+
+        internal fun delete() {
+            synchronized(this) {
+                out?.close()
+                out = null
+                deleted = true
+            }
+            if (!file.delete() && file.exists())
+                log.warn("$file has not been deleted")
+        }
+    }
+}
+
+private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+    var sum = 0L
+    for (element in this)
+        sum += selector(element)
+    return sum
+}
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+class JobNotFoundException(id: String) : RuntimeException("Job $id is not found")
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.MemberType
+import com.devexperts.usages.api.MemberUsage
+import com.devexperts.usages.api.MemberUsageRequest
+import java.util.*
+
+/**
+ * Cache of complete results of [MemberUsageRequest]s. Every result is tagged with the generation
+ * of artifacts information it has been computed for and is valid for this generation only.
+ * The cache is bounded by the total number of cached usages, the least recently used results are evicted.
+ */
+class UsagesResultCache(private val maxUsages: Long) {
+    private val results = LinkedHashMap<MemberUsageRequest, CachedResult>(16, 0.75f, true)
+    private var usages = 0L
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    /**
+     * Returns the cached result of the specified request computed for the specified generation,
+     * or `null` if there is no such result.
+     */
+    @Synchronized
+    fun get(request: MemberUsageRequest, generation: Long): List<MemberUsage>? {
+        val key = normalize(request)
+        val result = results[key]
+        if (result != null && result.generation == generation) {
+            hits++
+            return result.usages
+        }
+        if (result != null && result.generation < generation)
+            remove(key)
+        misses++
+        return null
+    }
+
+    /**
+     * Caches the complete result of the specified request computed for the specified generation.
+     */
+    @Synchronized
+    fun put(request: MemberUsageRequest, generation: Long, usages: List<MemberUsage>) {
+        if (usages.size > maxUsages)
+            return
+        val key = normalize(request)
+        val old = results[key]
+        if (old != null && old.generation > generation)
+            return
+        remove(key)
+        results[key] = CachedResult(generation, usages)
+        this.usages += usages.size
+        // Evict the least recently used results
+        val it = results.values.iterator()
+        while (this.usages > maxUsages && it.hasNext()) {
+            this.usages -= it.next().usages.size
+            it.remove()
+            evictions++
+        }
+    }
+
+    @Synchronized
+    fun stats() = UsagesResultCacheStats(results = results.size, usages = usages, maxUsages = maxUsages,
+            hits = hits, misses = misses, evictions = evictions)
+
+    private fun remove(key: MemberUsageRequest) {
+        val removed = results.remove(key) ?: return
+        usages -= removed.usages.size
+    }
+
+    private class CachedResult(val generation: Long, val usages: List<MemberUsage>)
+}
+
+/**
+ * Resets options which do not affect the result of the request, so that equal results have equal keys.
+ */
+private fun normalize(request: MemberUsageRequest): MemberUsageRequest {
+    val type = request.member.type
+    return request.copy(
+            findClasses = request.findClasses && type == MemberType.PACKAGE,
+            findMethods = request.findMethods && (type == MemberType.PACKAGE || type == MemberType.CLASS),
+            findFields = request.findFields && (type == MemberType.PACKAGE || type == MemberType.CLASS),
+            findDerivedClassesUsages = request.findDerivedClassesUsages && type == MemberType.CLASS,
+            findDerivedMethodsUsages = request.findDerivedMethodsUsages && type == MemberType.METHOD,
+            maxUsages = 0)
+}
+
+/**
+ * State of [UsagesResultCache], it is shown by the `/stats/cache` endpoint.
+ */
+data class UsagesResultCacheStats(
+        val results: Int,
+        val usages: Long,
+        val maxUsages: Long,
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long
+)
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer
+
+import com.devexperts.usages.analyzer.concurrent.Cancellation
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class BinaryReportTest {
+    private val directory = createTempDir("reports")
+    private val cache = Cache()
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun createUsages(): Usages {
+        val usages = Usages(cache, SimpleUsagesKeeper(cache), Config())
+        val classUsages = usages.getUsagesForClass("com.example.Foo")
+        val usedFrom = cache.resolveMember("com.example.Bar", "bar(int)")
+        classUsages.addMemberUsage("foo(java.lang.String)", usedFrom, Usage(UseKind.INVOKEVIRTUAL, "Bar.java", 42))
+        classUsages.addMemberUsage("foo(java.lang.String)", usedFrom, Usage(UseKind.OVERRIDE, null, -1))
+        classUsages.addTypeUsage(cache.resolveMember("com.example.Baz", "<class>"),
+                Usage(UseKind.EXTEND, "Baz.java", 100000))
+        classUsages.addInheritableMember("foo(java.lang.String)")
+        usages.getUsagesForClass("com.example.Unused")
+        usages.getUsagesForClass("com.example.Bar")
+                .addMemberUsage("field", usedFrom, Usage(UseKind.GETFIELD, "Bar.java", 7))
+        return usages
+    }
+
+    @Test
+    fun testRoundTrip() {
+        val usages = createUsages()
+        val file = File(directory, "report.usagesbin")
+        UsagesScanResult(usages).writeBinaryReportAtomically(file)
+        val read = UsagesScanResult.readBinaryReport(file, Cancellation.NEVER).usages.usages
+        assertEquals(setOf("com.example.Bar", "com.example.Foo"), read.allClassUsages().map { it.key }.toSet())
+        for (className in listOf("com.example.Bar", "com.example.Foo")) {
+            val expected = usages.getUsagesForClass(className)
+            val actual = read.get(className)
+            assertEquals(expected.usages, actual.usages)
+            assertEquals(expected.inheritableMembers, actual.inheritableMembers)
+        }
+    }
+
+    @Test
+    fun testEmptyReport() {
+        val file = File(directory, "empty.usagesbin")
+        UsagesScanResult(Usages(cache, SimpleUsagesKeeper(cache), Config())).writeBinaryReportAtomically(file)
+        assertTrue(UsagesScanResult.readBinaryReport(file, Cancellation.NEVER).usages.usages.allClassUsages().isEmpty())
+    }
+
+    @Test
+    fun testReadClasses() {
+        val file = File(directory, "report.usagesbin")
+        UsagesScanResult(createUsages()).writeBinaryReportAtomically(file)
+        val reader = BinaryReport.Reader.open(file)
+        assertEquals(2, reader.classCount)
+        assertEquals(1, reader.findClass("com.example.Baz"))
+        val usages = Usages(cache, SimpleUsagesKeeper(cache), Config())
+        reader.readClasses("com.example.Foo", { it == "com.example.Foo" }, usages)
+        reader.readClasses("com.example.Foo", { it == "com.example.Foo" }, usages)
+        reader.readClasses("com.example.Qux", { true }, usages)
+        assertEquals(listOf("com.example.Foo"), usages.usages.allClassUsages().map { it.key })
+        assertEquals(2, usages.getUsagesForClass("com.example.Foo").getAllMemberUsages("foo(java.lang.String)").size)
+        reader.readClasses("com.example.", { true }, usages)
+        assertEquals(setOf("com.example.Bar", "com.example.Foo"), usages.usages.allClassUsages().map { it.key }.toSet())
+    }
+
+    @Test(expected = IOException::class)
+    fun testTruncatedReport() {
+        val out = ByteArrayOutputStream()
+        BinaryReport.write(createUsages(), out)
+        val bytes = out.toByteArray()
+        BinaryReport.Reader(ByteBuffer.wrap(bytes.copyOf(bytes.size - 3)))
+                .readAll(Usages(cache, SimpleUsagesKeeper(cache), Config()))
+    }
+
+    @Test(expected = IOException::class)
+    fun testUnsupportedVersion() {
+        val out = ByteArrayOutputStream()
+        BinaryReport.write(createUsages(), out)
+        val buffer = ByteBuffer.wrap(out.toByteArray())
+        buffer.putInt(4, BinaryReport.VERSION + 1)
+        BinaryReport.Reader(buffer)
+    }
+
+    @Test
+    fun testVarInts() {
+        val values = listOf(0, 1, 127, 128, 16383, 16384, Int.MAX_VALUE, -1)
+        val out = ByteArrayOutputStream()
+        values.forEach { BinaryReport.writeVarInt(out, it) }
+        val input = ByteBuffer.wrap(out.toByteArray())
+        assertEquals(values, values.map { BinaryReport.readVarInt(input) })
+    }
+
+    @Test
+    fun testVersion1Report() {
+        // Report of the first version with class com.example.Foo used by com.example.Bar#bar(int)
+        val strings = listOf("com.example.Foo", "foo()", "com.example.Bar", "bar(int)", "Bar.java")
+        val classBytes = ByteArrayOutputStream()
+        listOf(1, 1, 1, 2, 3, 1, UseKind.INVOKEVIRTUAL.ordinal, 5, 84, 1, 1).forEach {
+            BinaryReport.writeVarInt(classBytes, it)
+        }
+        val out = ByteArrayOutputStream()
+        DataOutputStream(out).writeInt(BinaryReport.MAGIC)
+        BinaryReport.writeVarInt(out, 1)
+        BinaryReport.writeVarInt(out, strings.size)
+        for (s in strings) {
+            BinaryReport.writeVarInt(out, s.length)
+            out.write(s.toByteArray())
+        }
+        listOf(1, 0, 0, classBytes.size()).forEach { BinaryReport.writeVarInt(out, it) }
+        classBytes.writeTo(out)
+        val file = File(directory, "report.usagesbin")
+        file.writeBytes(out.toByteArray())
+        assertTrue(BinaryReport.isVersion1(file))
+        val usages = UsagesScanResult.readBinaryReport(file, Cancellation.NEVER).usages.usages
+        val classUsages = usages.get("com.example.Foo")
+        assertEquals(mapOf(cache.resolveMember("com.example.Bar", "bar(int)") to
+                setOf(Usage(UseKind.INVOKEVIRTUAL, "Bar.java", 42))), classUsages.getMemberUsages("foo()"))
+        assertEquals(setOf("foo()"), classUsages.inheritableMembers)
+        UsagesScanResult(createUsages()).writeBinaryReportAtomically(file)
+        assertFalse(BinaryReport.isVersion1(file))
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer
+
+import com.devexperts.usages.analyzer.tune.SimpleUsagesKeeper
+import com.devexperts.usages.server.artifacts.ArtifactStore
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+
+class ClassFragmentStoreTest {
+    private val directory = createTempDir("fragments")
+    private val cache = Cache()
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun classBytes(c: Class<*>) =
+            c.getResourceAsStream(c.simpleName + ".class").use { it.readBytes() }
+
+    private fun parse(c: Class<*>, store: ClassFragmentStore?): Usages {
+        val usages = Usages(cache, SimpleUsagesKeeper(cache), Config())
+        usages.setFragmentStore(store)
+        usages.parseClass(c.name, classBytes(c).inputStream())
+        return usages
+    }
+
+    private fun assertSameUsages(expected: Usages, actual: Usages) {
+        val expectedClasses = expected.usages.allClassUsages().associate { it.key to it.value }
+        val actualClasses = actual.usages.allClassUsages().associate { it.key to it.value }
+        assertEquals(expectedClasses.keys, actualClasses.keys)
+        for ((className, classUsages) in expectedClasses) {
+            assertEquals(classUsages.usages, actualClasses[className]!!.usages)
+            assertEquals(classUsages.inheritableMembers, actualClasses[className]!!.inheritableMembers)
+        }
+    }
+
+    @Test
+    fun testReuseFragment() {
+        val store = ClassFragmentStore(ArtifactStore(directory, Long.MAX_VALUE))
+        val plain = parse(Usage::class.java, null)
+        val analyzed = parse(Usage::class.java, store)
+        assertEquals(1, directory.walk().count { it.isFile })
+        val loaded = parse(Usage::class.java, store)
+        assertSameUsages(plain, analyzed)
+        assertSameUsages(plain, loaded)
+        assertFalse(loaded.usages.get(Usage::class.java.name).inheritableMembers.isEmpty())
+    }
+
+    @Test
+    fun testCorruptedFragment() {
+        val store = ClassFragmentStore(ArtifactStore(directory, Long.MAX_VALUE))
+        val plain = parse(Usage::class.java, null)
+        parse(Usage::class.java, store)
+        val file = directory.walk().single { it.isFile }
+        file.writeBytes(file.readBytes().copyOf(file.length().toInt() / 2))
+        assertSameUsages(plain, parse(Usage::class.java, store))
+        assertTrue(file.length() > 0)
+    }
+
+    @Test
+    fun testEviction() {
+        val files = ArtifactStore(directory, 1)
+        val store = ClassFragmentStore(files)
+        parse(Usage::class.java, store)
+        parse(Cache::class.java, store)
+        // The least recently used fragment is deleted, the last stored one is kept
+        assertEquals(1, directory.walk().count { it.isFile })
+        assertEquals(1, files.stats().evictions)
+        val plain = parse(Cache::class.java, null)
+        assertSameUsages(plain, parse(Cache::class.java, store))
+    }
+
+    @Test
+    fun testHash() {
+        val bytes = classBytes(ClassFragmentStore::class.java)
+        assertEquals(64, ClassFragmentStore.hash(bytes).length)
+        assertEquals(ClassFragmentStore.hash(bytes), ClassFragmentStore.hash(bytes.copyOf()))
+        assertNotEquals(ClassFragmentStore.hash(bytes), ClassFragmentStore.hash(bytes.copyOf(bytes.size - 1)))
+    }
+}
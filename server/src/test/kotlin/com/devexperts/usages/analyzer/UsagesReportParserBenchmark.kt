@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer
+
+import com.devexperts.usages.analyzer.internal.MemberInternal
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.util.*
+import java.util.regex.Pattern
+
+/**
+ * Compares throughput and allocations of [UsagesReportParser] with the previous line-based parser
+ * of usages reports, e.g. `old: 45.8 MB/s, 21440835 bytes allocated per report;
+ * new: 123.3 MB/s, 2925722 bytes allocated per report` for a report of 865732 bytes.
+ * Takes the number of iterations as an optional argument.
+ */
+fun main(args: Array<String>) {
+    val report = generateReport()
+    val iterations = args.firstOrNull()?.toInt() ?: 200
+    repeat(3) {
+        val oldCache = Cache()
+        measure("old", report.size, iterations) {
+            readByLines(report, ClassUsages(oldCache, "com.example.Foo"), oldCache)
+        }
+        val newCache = Cache()
+        val parser = UsagesReportParser(newCache)
+        measure("new", report.size, iterations) {
+            parser.parse(report.inputStream(), ClassUsages(newCache, "com.example.Foo"))
+        }
+    }
+}
+
+private fun generateReport(): ByteArray {
+    val cache = Cache()
+    val classUsages = ClassUsages(cache, "com.example.Foo")
+    val random = Random(1)
+    val useKinds = UseKind.values()
+    for (member in 0 until 200) {
+        for (user in 0 until 20) {
+            val className = "com.example.user.Class${random.nextInt(100)}"
+            repeat(1 + random.nextInt(3)) {
+                classUsages.addMemberUsage("member$member(int,java.lang.String)",
+                        cache.resolveMember(className, "method${random.nextInt(50)}()"),
+                        Usage(useKinds[random.nextInt(useKinds.size)], "Class.java", random.nextInt(5000)))
+            }
+            classUsages.addTypeUsage(cache.resolveMember(className, MemberInternal.CLASS_MEMBER_NAME),
+                    Usage(UseKind.SIGNATURE, "Class.java", -1))
+        }
+    }
+    for (member in 0 until 50) {
+        classUsages.addInheritableMember("inherited$member()")
+    }
+    val out = ByteArrayOutputStream()
+    classUsages.writeToStream(out)
+    return out.toByteArray()
+}
+
+private fun measure(name: String, size: Int, iterations: Int, parse: () -> Unit) {
+    val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val allocated = threadMXBean.getThreadAllocatedBytes(threadId)
+    val start = System.nanoTime()
+    repeat(iterations) { parse() }
+    val time = System.nanoTime() - start
+    println("$name: %.1f MB/s, %d bytes allocated per report".format(size.toDouble() * iterations / time * 1000,
+            (threadMXBean.getThreadAllocatedBytes(threadId) - allocated) / iterations))
+}
+
+/**
+ * The previous implementation of [ClassUsages.readFromStream].
+ */
+private fun readByLines(report: ByteArray, classUsages: ClassUsages, cache: Cache) {
+    var inheritableMember = false
+    var useFor: String? = null
+    var use: MutableMap<MemberInternal, MutableSet<Usage>>? = null
+    var className: String? = null
+    for (line in report.inputStream().bufferedReader(Fmt.CHARSET).lineSequence()) {
+        if (line.isEmpty() || line.startsWith(Fmt.COMMENT_PREFIX))
+            continue
+        if (line.startsWith(Fmt.MEMBER_PREFIX)) {
+            if (use == null || className == null)
+                throw IOException("Invalid format -- header lines expected")
+            val rest = line.substring(Fmt.MEMBER_PREFIX.length)
+            val i = rest.indexOf(Fmt.USE_KINDS_PREFIX)
+            if (i < 0)
+                throw IOException("Invalid format -- missing member use kinds")
+            val m = cache.resolveMember(className, rest.substring(0, i))
+            use.getOrPut(m) { HashSet() }.addAll(parseUsages(rest.substring(i + Fmt.USE_KINDS_PREFIX.length)))
+        } else if (line.startsWith(Fmt.CLASS_PREFIX)) {
+            if (use == null)
+                throw IOException("Invalid format -- header lines expected")
+            inheritableMember = false
+            val rest = line.substring(Fmt.CLASS_PREFIX.length)
+            val i = rest.indexOf(Fmt.USE_KINDS_PREFIX)
+            if (i < 0) {
+                className = rest
+            } else {
+                className = rest.substring(0, i)
+                use.getOrPut(cache.resolveMember(className, MemberInternal.CLASS_MEMBER_NAME)) { HashSet() }
+                        .addAll(parseUsages(rest.substring(i + Fmt.USE_KINDS_PREFIX.length)))
+            }
+        } else {
+            if (inheritableMember)
+                classUsages.addInheritableMember(useFor)
+            inheritableMember = true
+            useFor = line
+            use = classUsages.getMemberUsages(line)
+        }
+    }
+    if (inheritableMember)
+        classUsages.addInheritableMember(useFor)
+}
+
+private fun parseUsages(s: String): Set<Usage> {
+    val usages = HashSet<Usage>()
+    val st = StringTokenizer(s, Fmt.USE_KINDS_SEPARATOR)
+    while (st.hasMoreTokens()) {
+        val matcher = Pattern.compile("(\\w+)\\(([^():]*):(-?\\d+)\\)").matcher(st.nextToken())
+        if (matcher.matches())
+            usages.add(Usage(UseKind.valueOf(matcher.group(1)), matcher.group(2), matcher.group(3).toInt()))
+    }
+    return usages
+}
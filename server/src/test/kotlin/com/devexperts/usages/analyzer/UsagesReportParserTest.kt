@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.analyzer
+
+import com.devexperts.usages.analyzer.internal.MemberInternal
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class UsagesReportParserTest {
+    private val cache = Cache()
+
+    private fun createClassUsages(): ClassUsages {
+        val classUsages = ClassUsages(cache, "com.example.Foo")
+        val usedFrom = cache.resolveMember("com.example.Bar", "bar(int)")
+        classUsages.addMemberUsage("foo(java.lang.String)", usedFrom, Usage(UseKind.INVOKEVIRTUAL, "Bar.java", 42))
+        classUsages.addMemberUsage("foo(java.lang.String)", usedFrom, Usage(UseKind.OVERRIDE, "Bar.java", -1))
+        classUsages.addMemberUsage("field", cache.resolveMember("com.example.Baz", "baz()"),
+                Usage(UseKind.GETFIELD, "Bäz.java", 7))
+        classUsages.addTypeUsage(cache.resolveMember("com.example.Baz", MemberInternal.CLASS_MEMBER_NAME),
+                Usage(UseKind.EXTEND, "Baz.java", 100000))
+        classUsages.addInheritableMember("foo(java.lang.String)")
+        classUsages.addInheritableMember("toString()")
+        return classUsages
+    }
+
+    private fun write(classUsages: ClassUsages): ByteArray {
+        val out = ByteArrayOutputStream()
+        classUsages.writeToStream(out)
+        return out.toByteArray()
+    }
+
+    private fun parse(report: String): ClassUsages {
+        val classUsages = ClassUsages(cache, "com.example.Foo")
+        UsagesReportParser(cache).parse(ByteBuffer.wrap(report.toByteArray()), classUsages)
+        return classUsages
+    }
+
+    @Test
+    fun testRoundTrip() {
+        val expected = createClassUsages()
+        val actual = ClassUsages(cache, "com.example.Foo")
+        actual.readFromStream(write(expected).inputStream())
+        assertEquals(expected.usages, actual.usages)
+        assertEquals(expected.inheritableMembers, actual.inheritableMembers)
+    }
+
+    @Test
+    fun testNamesAreResolved() {
+        val report = write(createClassUsages())
+        val first = ClassUsages(cache, "com.example.Foo")
+        val second = ClassUsages(cache, "com.example.Foo")
+        val parser = UsagesReportParser(cache)
+        parser.parse(ByteBuffer.wrap(report), first)
+        parser.parse(ByteBuffer.wrap(report), second)
+        val firstUsedFrom = first.getMemberUsages("field").keys.single()
+        val secondUsedFrom = second.getMemberUsages("field").keys.single()
+        assertSame(firstUsedFrom, secondUsedFrom)
+        assertSame(cache.resolveMember("com.example.Baz", "baz()"), firstUsedFrom)
+        assertSame(first.getMemberUsages("field")[firstUsedFrom]!!.single().fileName,
+                second.getMemberUsages("field")[secondUsedFrom]!!.single().fileName)
+    }
+
+    @Test
+    fun testLineSeparators() {
+        val classUsages = parse("# comment\r\nfoo()\r\n\tcom.example.Bar -- NEW(Bar.java:1)\r" +
+                "\t\tbar() -- INVOKESTATIC(Bar.java:2),CHECKCAST(Bar.java:3)\n\ninherited()")
+        assertEquals(setOf(Usage(UseKind.NEW, "Bar.java", 1)),
+                classUsages.getMemberUsages("foo()")[cache.resolveMember("com.example.Bar", "<class>")])
+        assertEquals(setOf(Usage(UseKind.INVOKESTATIC, "Bar.java", 2), Usage(UseKind.CHECKCAST, "Bar.java", 3)),
+                classUsages.getMemberUsages("foo()")[cache.resolveMember("com.example.Bar", "bar()")])
+        assertEquals(setOf("inherited()"), classUsages.inheritableMembers)
+    }
+
+    @Test
+    fun testMalformedUsagesAreSkipped() {
+        val classUsages = parse("foo()\n\tcom.example.Bar\n" +
+                "\t\tbar() -- NEW(Bar.java),NEW(Bar.java:x),NEW(a:b:1),NEW Bar.java:1),,NEW(Bar.java:-4)")
+        assertEquals(setOf(Usage(UseKind.NEW, "Bar.java", -4)),
+                classUsages.getMemberUsages("foo()")[cache.resolveMember("com.example.Bar", "bar()")])
+    }
+
+    @Test(expected = IOException::class)
+    fun testMissingHeader() {
+        parse("\t\tbar() -- NEW(Bar.java:1)")
+    }
+
+    @Test(expected = IOException::class)
+    fun testMissingUseKinds() {
+        parse("foo()\n\tcom.example.Bar\n\t\tbar()")
+    }
+
+    @Test(expected = IOException::class)
+    fun testUnknownUseKind() {
+        parse("foo()\n\tcom.example.Bar -- UNUSED(Bar.java:1)")
+    }
+
+    @Test
+    fun testResolveStringFromBytes() {
+        val bytes = "xcom.example.Fööy".toByteArray()
+        val s = cache.resolveString(bytes, 1, bytes.size - 2)
+        assertEquals("com.example.Föö", s)
+        assertSame(s, cache.resolveString("com.example.Föö"))
+        assertSame(s, cache.resolveString("com.example.Föö".toByteArray(), 0, bytes.size - 2))
+        // Table of strings is grown
+        val strings = (0 until 1000).map { cache.resolveString("s$it".toByteArray(), 0, "s$it".length) }
+        assertEquals((0 until 1000).map { "s$it" }, strings)
+        assertSame(strings[500], cache.resolveString("s500"))
+    }
+}
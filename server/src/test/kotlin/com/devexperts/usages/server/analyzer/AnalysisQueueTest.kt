@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.*
+import com.devexperts.usages.server.artifacts.ArtifactManager
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class AnalysisQueueTest {
+    private var id1: Int = -1
+    private var id3: Int = -1
+
+    @Before
+    fun setUp() {
+        initInMemoryDatabase()
+        id1 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact1,
+                dependencies = listOf(artifact2), packages = pkg123).id
+        id3 = ArtifactManager.storeArtifactInfo(indexerId = "qd", artifact = artifact3,
+                dependencies = emptyList(), packages = listOf(pkg2)).id
+        ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = pom,
+                dependencies = emptyList(), packages = emptyList()).id
+    }
+
+    @After
+    fun tearDown() = dropDatabase()
+
+    @Test
+    fun testEnqueueNotAnalyzed() {
+        ArtifactManager.markAnalyzed(id3)
+        // Dependencies without source indexer and artifacts of other types are not queued
+        assertEquals(1, AnalysisQueue.enqueueNotAnalyzed("jrc", listOf("jar")))
+        assertEquals(0, AnalysisQueue.enqueueNotAnalyzed("jrc", listOf("jar")))
+        assertEquals(0, AnalysisQueue.enqueueNotAnalyzed("qd", listOf("jar")))
+        assertEquals(listOf(id1), AnalysisQueue.next(10))
+    }
+
+    @Test
+    fun testNextAndRemove() {
+        val id2 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact2,
+                dependencies = emptyList(), packages = listOf(pkg4)).id
+        AnalysisQueue.enqueueNotAnalyzed("jrc", listOf("jar"))
+        AnalysisQueue.enqueueNotAnalyzed("qd", listOf("jar"))
+        assertEquals(listOf(id3, id2, id1), AnalysisQueue.next(10))
+        assertEquals(listOf(id3, id2), AnalysisQueue.next(2))
+        AnalysisQueue.remove(id2)
+        assertEquals(listOf(id3, id1), AnalysisQueue.next(10))
+        assertEquals(2, AnalysisQueue.size())
+    }
+
+    @Test
+    fun testFail() {
+        AnalysisQueue.enqueueNotAnalyzed("jrc", listOf("jar"))
+        assertFalse(AnalysisQueue.fail(id1, 2))
+        assertEquals(listOf(id1), AnalysisQueue.next(10))
+        assertTrue(AnalysisQueue.fail(id1, 2))
+        assertTrue(AnalysisQueue.next(10).isEmpty())
+    }
+
+    companion object {
+        private val pom = Artifact(groupId = "com.devexperts.usages", artifactId = "usages-parent", version = "2017",
+                type = "pom", classifier = null)
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.server.*
+import com.devexperts.usages.server.artifacts.ArtifactManager
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+
+class BackgroundAnalyzerTest {
+    private var id1: Int = -1
+    private var id3: Int = -1
+
+    @Before
+    fun setUp() {
+        initInMemoryDatabase()
+        id1 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact1,
+                dependencies = emptyList(), packages = pkg123).id
+        id3 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact3,
+                dependencies = emptyList(), packages = listOf(pkg2)).id
+        AnalysisQueue.enqueueNotAnalyzed("jrc", listOf("jar"))
+    }
+
+    @After
+    fun tearDown() = dropDatabase()
+
+    @Test
+    fun testProcessQueue() {
+        val analyzed = ConcurrentHashMap.newKeySet<Int>()
+        val backgroundAnalyzer = BackgroundAnalyzer(2, 2) { artifactId ->
+            if (artifactId == id3)
+                throw IllegalStateException("Cannot download")
+            analyzed += artifactId
+            true
+        }
+        backgroundAnalyzer.wakeUp()
+        awaitStats(backgroundAnalyzer) { it.analyzed == 1L && it.failed == 1L }
+        assertEquals(setOf(id1), analyzed)
+        assertEquals(BackgroundAnalysisStats(queued = 1, threads = 2, analyzed = 1, failed = 1, dropped = 0),
+                backgroundAnalyzer.stats())
+        // The failed artifact is retried on the next run and is removed after the second failure
+        backgroundAnalyzer.wakeUp()
+        awaitStats(backgroundAnalyzer) { it.dropped == 1L }
+        assertEquals(0, backgroundAnalyzer.stats().queued)
+    }
+
+    @Test
+    fun testDisabled() {
+        val backgroundAnalyzer = BackgroundAnalyzer(0, 2) { throw AssertionError() }
+        backgroundAnalyzer.wakeUp()
+        assertEquals(2, backgroundAnalyzer.stats().queued)
+    }
+
+    private fun awaitStats(backgroundAnalyzer: BackgroundAnalyzer, condition: (BackgroundAnalysisStats) -> Boolean) {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (!condition(backgroundAnalyzer.stats())) {
+            assertTrue("Background analysis has not completed", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.server.artifact1
+import com.devexperts.usages.server.artifact2
+import com.devexperts.usages.server.artifact3
+import org.junit.Assert.*
+import org.junit.Test
+
+class ScanResultCacheTest {
+    @Test
+    fun testEviction() {
+        val cache = ScanResultCache<String>(10, false) { it.length.toLong() }
+        cache.put(artifact1, "aaaa")
+        cache.put(artifact2, "bbbb")
+        assertEquals("aaaa", cache.get(artifact1))
+        cache.put(artifact3, "cccc")
+        assertNull(cache.get(artifact2))
+        assertEquals("aaaa", cache.get(artifact1))
+        assertEquals("cccc", cache.get(artifact3))
+        assertEquals(ScanResultCacheStats(results = 2, size = 8, maxSize = 10, spilled = 0,
+                hits = 3, softHits = 0, misses = 1, evictions = 1), cache.stats())
+    }
+
+    @Test
+    fun testTooLargeResult() {
+        val cache = ScanResultCache<String>(3, false) { it.length.toLong() }
+        cache.put(artifact1, "aaaa")
+        assertNull(cache.get(artifact1))
+        assertEquals(0, cache.stats().size)
+    }
+
+    @Test
+    fun testReplace() {
+        val cache = ScanResultCache<String>(10, false) { it.length.toLong() }
+        cache.put(artifact1, "aaaa")
+        cache.put(artifact1, "aaaaaa")
+        assertEquals("aaaaaa", cache.get(artifact1))
+        assertEquals(6, cache.stats().size)
+    }
+
+    @Test
+    fun testHot() {
+        val cache = ScanResultCache<String>(10, false) { it.length.toLong() }
+        assertNull(cache.get(artifact1))
+        assertFalse(cache.isHot(artifact1))
+        assertNull(cache.get(artifact1))
+        assertTrue(cache.isHot(artifact1))
+        assertFalse(cache.isHot(artifact2))
+        cache.put(artifact1, "aaaa")
+        assertFalse(cache.isHot(artifact1))
+    }
+
+    @Test
+    fun testSoftSpill() {
+        val cache = ScanResultCache<String>(5, true) { it.length.toLong() }
+        val evicted = "aaaa"
+        cache.put(artifact1, evicted)
+        cache.put(artifact2, "bbbb")
+        assertEquals(1, cache.stats().spilled)
+        // The spilled result is strongly reachable from this test, so it cannot be collected
+        assertSame(evicted, cache.get(artifact1))
+        assertNull(cache.get(artifact3))
+        val stats = cache.stats()
+        assertEquals(1, stats.results)
+        assertEquals(1, stats.spilled)
+        assertEquals(1, stats.softHits)
+        assertEquals(2, stats.evictions)
+    }
+}
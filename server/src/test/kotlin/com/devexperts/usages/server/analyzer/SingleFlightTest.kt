@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.analyzer
+
+import com.devexperts.usages.analyzer.concurrent.Cancellation
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SingleFlightTest {
+    @Test
+    fun testConcurrentCallersShareResult() {
+        val singleFlight = SingleFlight<String, Int>()
+        val executions = AtomicInteger()
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val task = { _: Cancellation ->
+            executions.incrementAndGet()
+            started.countDown()
+            release.await()
+            42
+        }
+        val first = CompletableFuture.supplyAsync { singleFlight.execute("a", Cancellation.NEVER, task) }
+        started.await()
+        val second = CompletableFuture.supplyAsync { singleFlight.execute("a", Cancellation.NEVER, task) }
+        // Wait until the second caller joins the flight
+        val deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10)
+        while (singleFlight.callers("a") < 2 && System.currentTimeMillis() < deadline)
+            Thread.yield()
+        assertEquals(2, singleFlight.callers("a"))
+        release.countDown()
+        assertEquals(42, first.get(10, TimeUnit.SECONDS))
+        assertEquals(42, second.get(10, TimeUnit.SECONDS))
+        assertEquals(1, executions.get())
+        assertEquals(0, singleFlight.callers("a"))
+        // The flight is completed, the next call executes the task again
+        assertEquals(42, singleFlight.execute("a", Cancellation.NEVER, task))
+        assertEquals(2, executions.get())
+    }
+}
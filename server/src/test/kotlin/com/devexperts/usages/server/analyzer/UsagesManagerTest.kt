@@ -17,11 +17,17 @@
  */
 package com.devexperts.usages.server.analyzer
 
+import com.devexperts.usages.api.ArtifactMask
+import com.devexperts.usages.api.Member
+import com.devexperts.usages.api.MemberUsageRequest
 import com.devexperts.usages.api.UsageKind
 import com.devexperts.usages.server.*
 import com.devexperts.usages.server.artifacts.ArtifactManager
+import org.jetbrains.exposed.sql.insert
+import org.jetbrains.exposed.sql.transactions.transaction
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 
@@ -91,4 +97,80 @@ class UsagesManagerTest {
         val usages = UsagesManager.getMemberUsages(memberId1)
         assertEquals(4, usages.size)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testFindMemberUsages() {
+        val memberId1 = UsagesManager.geOrCreateMember(member1).id
+        val memberId2 = UsagesManager.geOrCreateMember(member2).id
+        val location1 = UsagesManager.getOrCreateLocationId(id1, memberId1, null, -1)
+        val location2 = UsagesManager.getOrCreateLocationId(id2, memberId1, null, -1)
+        UsagesManager.addMemberUsage(memberId1, location1, UsageKind.CAST)
+        UsagesManager.addMemberUsage(memberId1, location2, UsageKind.CAST)
+        UsagesManager.addMemberUsage(memberId2, location1, UsageKind.INVOKESTATIC)
+        val artifacts = listOf(WithId(id1, artifact1))
+        // Only the class itself
+        val classUsages = UsagesManager.findMemberUsages(classQuery(findMethods = false), artifacts)
+        assertEquals(1, classUsages.size)
+        assertEquals(member1, classUsages[0].member)
+        assertEquals(artifact1, classUsages[0].location.artifact)
+        // The class and its methods
+        val allUsages = UsagesManager.findMemberUsages(classQuery(findMethods = true), artifacts)
+        assertEquals(2, allUsages.size)
+        assertEquals(setOf(member1, member2), allUsages.map { it.member }.toSet())
+    }
+
+    @Test
+    fun testCountMemberUsages() {
+        val memberId1 = UsagesManager.geOrCreateMember(member1).id
+        val memberId2 = UsagesManager.geOrCreateMember(member2).id
+        val location1 = UsagesManager.getOrCreateLocationId(id1, memberId1, null, -1)
+        val location2 = UsagesManager.getOrCreateLocationId(id2, memberId1, null, -1)
+        val location3 = UsagesManager.getOrCreateLocationId(id1, memberId2, null, -1)
+        UsagesManager.addMemberUsage(memberId1, location1, UsageKind.CAST)
+        UsagesManager.addMemberUsage(memberId1, location3, UsageKind.CAST)
+        UsagesManager.addMemberUsage(memberId1, location2, UsageKind.CAST)
+        UsagesManager.addMemberUsage(memberId2, location1, UsageKind.INVOKESTATIC)
+        val counts = UsagesManager.countMemberUsages(classQuery(findMethods = true), listOf(id1, id2))
+        assertEquals(mapOf(UsageKind.CAST to 2, UsageKind.INVOKESTATIC to 1), counts[id1])
+        assertEquals(mapOf(UsageKind.CAST to 1), counts[id2])
+        assertTrue(UsagesManager.countMemberUsages(classQuery(findMethods = true), listOf(id3)).isEmpty())
+    }
+
+    @Test
+    fun testFindDerivedMemberUsages() {
+        val derivedClass = Member.fromClass("com.devexperts.usages.server.DerivedServerKt")
+        val overridingMethod = Member.fromMethod(derivedClass.className(), "fff", member2.parameterTypes)
+        val memberId1 = UsagesManager.geOrCreateMember(member1).id
+        val derivedClassId = UsagesManager.geOrCreateMember(derivedClass).id
+        val overridingMethodId = UsagesManager.geOrCreateMember(overridingMethod).id
+        transaction {
+            Derived.insert {
+                it[Derived.memberId] = memberId1
+                it[Derived.derivedMemberId] = derivedClassId
+            }
+        }
+        val location1 = UsagesManager.getOrCreateLocationId(id1, memberId1, null, -1)
+        val location2 = UsagesManager.getOrCreateLocationId(id2, memberId1, null, -1)
+        UsagesManager.addMemberUsage(memberId1, location1, UsageKind.CAST)
+        UsagesManager.addMemberUsage(derivedClassId, location2, UsageKind.NEW)
+        UsagesManager.addMemberUsage(overridingMethodId, location2, UsageKind.INVOKEVIRTUAL)
+        assertEquals(listOf(derivedClass), UsagesManager.findDerivedMembers(member1))
+        assertEquals(listOf(overridingMethod), UsagesManager.findDerivedMembers(member2))
+        val artifacts = listOf(WithId(id1, artifact1), WithId(id2, artifact2))
+        assertEquals(listOf(member1), UsagesManager.findMemberUsages(classQuery(findMethods = false), artifacts)
+                .map { it.member })
+        assertEquals(setOf(member1, derivedClass),
+                UsagesManager.findMemberUsages(classQuery(findMethods = false, findDerived = true), artifacts)
+                        .map { it.member }.toSet())
+        assertEquals(setOf(member1, derivedClass, overridingMethod),
+                UsagesManager.findMemberUsages(classQuery(findMethods = true, findDerived = true), artifacts)
+                        .map { it.member }.toSet())
+        val methodQuery = MemberUsageQuery(member2, findClasses = false, findMethods = false, findFields = false,
+                findDerivedMethods = true)
+        assertEquals(listOf(overridingMethod), UsagesManager.findMemberUsages(methodQuery, artifacts).map { it.member })
+    }
+
+    private fun classQuery(findMethods: Boolean, findDerived: Boolean = false) = MemberUsageQuery(MemberUsageRequest(
+            member = member1, searchScope = ArtifactMask(), findClasses = true, findMethods = findMethods,
+            findFields = true, findDerivedClassesUsages = findDerived, findDerivedMethodsUsages = false))
+}
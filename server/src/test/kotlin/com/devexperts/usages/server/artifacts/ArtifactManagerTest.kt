@@ -43,6 +43,20 @@ class ArtifactManagerTest {
         assertEquals("jrc", ArtifactManager.getSourceIndexerName(id1))
     }
 
+    @Test
+    fun testTransitiveDependencies() {
+        val id3 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact3,
+                dependencies = emptyList(), packages = listOf(pkg4)).id
+        // Load the dependency graph before new dependencies are stored
+        assertTrue(ArtifactManager.artifactIdsWithAnyDependency(listOf(id3)).isEmpty())
+        val id2 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact2,
+                dependencies = listOf(artifact3), packages = listOf(pkg4)).id
+        val id1 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact1,
+                dependencies = listOf(artifact2), packages = pkg123).id
+        assertEquals(listOf(id2), ArtifactManager.artifactIdsWithAnyDependency(listOf(id3), maxDepth = 1))
+        assertEquals(setOf(id1, id2), ArtifactManager.artifactIdsWithAnyDependency(listOf(id3), maxDepth = 2).toSet())
+    }
+
     @Test
     fun testAddSameArtifact() {
         val id1 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact1,
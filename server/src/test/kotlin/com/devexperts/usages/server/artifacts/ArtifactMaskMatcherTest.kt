@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import com.devexperts.usages.api.ArtifactMask
+import com.devexperts.usages.server.*
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class ArtifactMaskMatcherTest {
+    @Before
+    fun setUp() = initInMemoryDatabase()
+
+    @After
+    fun tearDown() = dropDatabase()
+
+    @Test
+    fun testCoordinateMatcher() {
+        val matcher = CoordinateMatcher("com.devexperts.qd,com.devexperts.usages*,com.devexperts.u*,org.*.util,")
+        assertTrue(matcher.matches("com.devexperts.qd"))
+        assertFalse(matcher.matches("com.devexperts.qd.core"))
+        assertTrue(matcher.matches("com.devexperts.usages.server"))
+        assertTrue(matcher.matches("com.devexperts.util"))
+        assertTrue(matcher.matches("com.devexperts.u"))
+        assertFalse(matcher.matches("com.devexperts.a"))
+        assertTrue(matcher.matches("org.apache.util"))
+        assertFalse(matcher.matches("org.apache.utils"))
+        assertTrue(matcher.matches(""))
+        assertTrue(CoordinateMatcher("*").matches("anything"))
+    }
+
+    @Test
+    fun testGetArtifacts() {
+        val id1 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact1,
+                dependencies = listOf(artifact2), packages = pkg123).id
+        val id3 = ArtifactManager.storeArtifactInfo(indexerId = "jrc", artifact = artifact3,
+                dependencies = listOf(artifact2), packages = pkg123).id
+        val ids = listOf(id1, id3)
+        assertEquals(setOf(artifact1, artifact3),
+                ArtifactManager.getArtifacts(ids, ArtifactMaskMatcher.of(ArtifactMask())).map { it.value }.toSet())
+        val qd = ArtifactMask(groupId = "com.devexperts.q*", version = "3.154,3.155")
+        assertEquals(listOf(artifact3), ArtifactManager.getArtifacts(ids, ArtifactMaskMatcher.of(qd)).map { it.value })
+        // Null classifiers are matched as "null" strings
+        val nullClassifier = ArtifactMask(classifier = "nu*")
+        assertEquals(2, ArtifactManager.getArtifacts(ids, ArtifactMaskMatcher.of(nullClassifier)).size)
+        val sources = ArtifactMask(classifier = "sources")
+        assertTrue(ArtifactManager.getArtifacts(ids, ArtifactMaskMatcher.of(sources)).isEmpty())
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+
+class ArtifactStoreTest {
+    private val directory = createTempDir("local-repository")
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun download(name: String, size: Int): File {
+        val file = File(directory, name)
+        file.parentFile.mkdirs()
+        file.writeBytes(ByteArray(size))
+        return file
+    }
+
+    @Test
+    fun testEviction() {
+        val store = ArtifactStore(directory, 10)
+        val a = download("a.jar", 4)
+        store.add(a)
+        val b = download("b.jar", 4)
+        store.add(b)
+        store.touch(a)
+        val c = download("c.jar", 4)
+        store.add(c)
+        assertTrue(a.exists())
+        assertFalse(b.exists())
+        assertTrue(c.exists())
+        assertEquals(ArtifactStoreStats(files = 2, size = 8, maxSize = 10, pinned = 0, downloads = 3, reuses = 1,
+                evictions = 1, evictedSize = 4), store.stats())
+    }
+
+    @Test
+    fun testPinning() {
+        val store = ArtifactStore(directory, 10)
+        val a = download("a.jar", 4)
+        store.add(a)
+        store.pin(a)
+        val b = download("b.jar", 4)
+        store.add(b)
+        val c = download("c.jar", 4)
+        store.add(c)
+        assertTrue(a.exists())
+        assertFalse(b.exists())
+        assertEquals(1, store.stats().pinned)
+        store.pin(c)
+        val d = download("d.jar", 4)
+        store.add(d)
+        // All other files are pinned, so the store exceeds its size until they are released
+        assertEquals(12, store.stats().size)
+        // Released file has been used recently, so the least recently used one is evicted
+        store.unpin(a)
+        assertTrue(a.exists())
+        assertTrue(c.exists())
+        assertFalse(d.exists())
+        assertEquals(ArtifactStoreStats(files = 2, size = 8, maxSize = 10, pinned = 1, downloads = 4, reuses = 0,
+                evictions = 2, evictedSize = 8), store.stats())
+    }
+
+    @Test
+    fun testTooLargeFile() {
+        val store = ArtifactStore(directory, 3)
+        val a = download("a.jar", 4)
+        store.add(a)
+        assertTrue(a.exists())
+        store.pin(a)
+        store.unpin(a)
+        assertFalse(a.exists())
+        assertEquals(0, store.stats().size)
+    }
+
+    @Test
+    fun testExistingFiles() {
+        val a = download("repo/a.jar", 4)
+        a.setLastModified(1000)
+        val b = download("repo/b.jar", 4)
+        b.setLastModified(2000)
+        val c = download("repo/c.jar", 4)
+        c.setLastModified(3000)
+        val store = ArtifactStore(directory, 10)
+        assertEquals(2, store.stats().files)
+        assertFalse(a.exists())
+        assertTrue(b.exists())
+        assertTrue(c.exists())
+        store.add(b)
+        assertEquals(8, store.stats().size)
+    }
+}
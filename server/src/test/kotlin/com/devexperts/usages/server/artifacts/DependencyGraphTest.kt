@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class DependencyGraphTest {
+    // 2 -> 1, 3 -> 2, 4 -> 3, 5 -> 1 (artifact -> its dependency)
+    private fun chainGraph(maxOverlaySize: Int = 16): DependencyGraph {
+        val dependencies = DependencyList()
+        dependencies.add(2, 1)
+        dependencies.add(3, 2)
+        dependencies.add(5, 1)
+        val graph = DependencyGraph(dependencies, maxOverlaySize)
+        graph.addDependencies(4, listOf(3))
+        return graph
+    }
+
+    @Test
+    fun testDepthLimit() {
+        val graph = chainGraph()
+        assertEquals(setOf(2, 5), graph.dependents(listOf(1), 1).toSet())
+        assertEquals(setOf(2, 3, 5), graph.dependents(listOf(1), 2).toSet())
+        assertEquals(setOf(2, 3, 4, 5), graph.dependents(listOf(1), -1).toSet())
+        assertEquals(emptySet<Int>(), graph.dependents(listOf(1), 0).toSet())
+    }
+
+    @Test
+    fun testSpecifiedArtifactsAreExcluded() {
+        val graph = chainGraph()
+        assertEquals(setOf(4, 5), graph.dependents(listOf(1, 2, 3), -1).toSet())
+        assertEquals(emptySet<Int>(), graph.dependents(listOf(42), -1).toSet())
+    }
+
+    @Test
+    fun testMergeOverlay() {
+        val graph = chainGraph(maxOverlaySize = 1)
+        graph.addDependencies(6, listOf(4, 5)) // overlay is merged here
+        graph.addDependencies(7, listOf(6))
+        assertEquals(setOf(2, 3, 5, 6), graph.dependents(listOf(1), 2).toSet())
+        assertEquals(setOf(2, 3, 4, 5, 6, 7), graph.dependents(listOf(1), -1).toSet())
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.artifacts
+
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.WithId
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class VersionCatalogTest {
+    private fun qds(id: Int, version: String) = WithId(id, Artifact("com.devexperts.qd", "qds", version, null, null))
+
+    @Test
+    fun testRanks() {
+        val catalog = VersionCatalog(listOf(qds(1, "3.10"), qds(2, "3.9"), qds(3, "3.10.1")))
+        val ranks = catalog.ranks(listOf(1, 2, 3, 42))
+        assertTrue(ranks[1] < ranks[0] && ranks[0] < ranks[2])
+        assertEquals(0, ranks[3])
+    }
+
+    @Test
+    fun testAdd() {
+        val catalog = VersionCatalog(listOf(qds(1, "3.10"), qds(2, "3.9")))
+        catalog.add(qds(3, "3.9.5"))
+        catalog.add(qds(3, "3.9.5"))
+        assertEquals(3, catalog.size)
+        assertEquals(listOf(1, 3, 2), listOf(1, 2, 3).sortedByDescending { catalog.ranks(listOf(it))[0] })
+    }
+
+    @Test
+    fun testAges() {
+        val catalog = VersionCatalog(listOf(qds(1, "3.10"), qds(2, "3.9"),
+                WithId(3, Artifact("com.devexperts.qd", "qd-core", "3.9", null, null))))
+        catalog.add(qds(4, "3.11"))
+        assertEquals(listOf(1, 2, 0, 0, 0), catalog.ages(listOf(1, 2, 3, 4, 42)).asList())
+    }
+}
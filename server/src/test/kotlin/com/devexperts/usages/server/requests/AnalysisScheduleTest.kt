@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class AnalysisScheduleTest {
+    // Odd numbers are cached, ages are numbers divided by 10
+    private val artifacts = listOf(20, 11, 2, 13, 30, 1)
+
+    private fun schedule(backgroundDownloads: Int) =
+            scheduleAnalyses(artifacts, backgroundDownloads, { it % 2 == 1 }, { it / 10 })
+
+    @Test
+    fun testCachedFirst() {
+        assertEquals(listOf(1, 11, 13, 2, 20, 30), schedule(0))
+    }
+
+    @Test
+    fun testBackgroundDownloads() {
+        assertEquals(listOf(2, 1, 11, 13, 20, 30), schedule(1))
+        assertEquals(listOf(2, 20, 30, 1, 11, 13), schedule(5))
+    }
+
+    @Test
+    fun testNothingCached() {
+        assertEquals(listOf(2, 20, 30), scheduleAnalyses(listOf(20, 2, 30), 1, { false }, { it / 10 }))
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.Artifact
+import com.devexperts.usages.server.WithId
+import com.devexperts.usages.server.analyzer.MemberUsageQuery
+import com.devexperts.usages.server.artifact1
+import com.devexperts.usages.server.artifact2
+import com.devexperts.usages.server.member1
+import com.devexperts.usages.server.member2
+import org.junit.Assert.*
+import org.junit.Test
+
+class BatchPlanTest {
+    private val derivedQuery = MemberUsageQuery(member1, findClasses = true, findMethods = false,
+            findFields = false, findDerivedClasses = true)
+    private val directQuery = MemberUsageQuery(member2, findClasses = false, findMethods = true, findFields = false)
+    // Neither artifact is analyzed, they have cached reports only
+    private val shared = WithId(1, artifact1)
+    private val derivedOnly = WithId(2, artifact2)
+    private val directOnly = WithId<Artifact>(3, artifact1.copy(version = "2018"))
+
+    @Test
+    fun testMixedRequests() {
+        val plan = BatchPlan(listOf(directQuery, derivedQuery),
+                listOf(listOf(shared, directOnly), listOf(shared, derivedOnly)))
+        assertEquals(setOf(shared, directOnly, derivedOnly), plan.artifacts)
+        assertEquals(listOf(0, 1), plan.requests(shared))
+        assertEquals(listOf(0), plan.directRequests(shared))
+        assertTrue(plan.mustBeStored(shared))
+        // The artifact is not searched directly, but it still has to be stored for the derived request
+        assertEquals(emptyList<Int>(), plan.directRequests(derivedOnly))
+        assertTrue(plan.mustBeStored(derivedOnly))
+        // Usages are read from the cached report, the artifact is stored to the index later
+        assertEquals(listOf(0), plan.directRequests(directOnly))
+        assertFalse(plan.mustBeStored(directOnly))
+    }
+
+    @Test
+    fun testDirectRequests() {
+        val plan = BatchPlan(listOf(directQuery, directQuery), listOf(listOf(shared), emptyList()))
+        assertEquals(listOf(0), plan.directRequests(shared))
+        assertFalse(plan.mustBeStored(shared))
+        assertEquals(emptyList<Int>(), plan.requests(derivedOnly))
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.*
+import com.devexperts.usages.server.artifact1
+import com.devexperts.usages.server.member1
+import com.devexperts.usages.server.member2
+import org.junit.Assert.*
+import org.junit.Test
+
+class BatchUsagesLimiterTest {
+    private val usage = MemberUsage(member1, UsageKind.NEW, Location(artifact1, member2, null, 1))
+
+    @Test
+    fun testLimits() {
+        val limiter = BatchUsagesLimiter(listOf(0, 2))
+        assertEquals(3, limiter.messages(0, listOf(usage, usage, usage)).size)
+        assertEquals(listOf(MemberUsagesBatchMessage(1, usage = usage)), limiter.messages(1, listOf(usage)))
+        assertEquals(listOf(MemberUsagesBatchMessage(1, usage = usage),
+                MemberUsagesBatchMessage(1, complete = CompleteMessage.USAGES_NUMBER_EXCEED)),
+                limiter.messages(1, listOf(usage, usage)))
+        assertTrue(limiter.messages(1, listOf(usage)).isEmpty())
+        assertFalse(limiter.allExceeded)
+        assertEquals(listOf(MemberUsagesBatchMessage(0, complete = CompleteMessage.COMPLETE)),
+                limiter.completeMessages())
+    }
+}
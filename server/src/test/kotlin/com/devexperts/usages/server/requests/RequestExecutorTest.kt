@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class RequestExecutorTest {
+    @Test
+    fun testRoundRobin() {
+        val executor = RequestExecutor("test", threads = 1, requestParallelism = 1)
+        val order = Collections.synchronizedList(ArrayList<String>())
+        val blocker = CountDownLatch(1)
+        val request1 = executor.newRequest("1")
+        val request2 = executor.newRequest("2")
+        val a1 = request1.submit { blocker.await(); order += "a1" }
+        val a2 = request1.submit { order += "a2" }
+        val a3 = request1.submit { order += "a3" }
+        val b1 = request2.submit { order += "b1" }
+        blocker.countDown()
+        listOf(a1, a2, a3, b1).forEach { it.get(5, TimeUnit.SECONDS) }
+        // The second request should not wait for all tasks of the first one
+        assertEquals(listOf("a1", "b1", "a2", "a3"), order)
+        request1.close()
+        request2.close()
+    }
+
+    @Test
+    fun testCloseCancelsQueuedTasks() {
+        val executor = RequestExecutor("test", threads = 1, requestParallelism = 1)
+        val blocker = CountDownLatch(1)
+        val request = executor.newRequest("1")
+        val running = request.submit { blocker.await() }
+        val queued = request.submit { }
+        assertEquals(1, executor.stats().requests.size)
+        request.close()
+        assertTrue(queued.isCancelled)
+        assertTrue(request.submit { }.isCancelled)
+        assertEquals(0, executor.stats().requests.size)
+        blocker.countDown()
+        running.get(5, TimeUnit.SECONDS)
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.analyzer.AnalysisPhase
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class RequestMetricsTest {
+    @Test
+    fun testPhases() {
+        val metrics = RequestMetrics(Long.MAX_VALUE)
+        val timer = metrics.start("1")
+        timer.record(RequestPhase.CANDIDATES, TimeUnit.MILLISECONDS.toNanos(3))
+        timer.record(AnalysisPhase.DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(5))
+        timer.record(AnalysisPhase.DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(2))
+        assertEquals(42, timer.time(RequestPhase.INDEX_LOOKUP) { 42 })
+        assertEquals(listOf("1"), metrics.stats().activeRequests.map { it.requestId })
+        metrics.finish(timer)
+        metrics.finish(timer)
+        val stats = metrics.stats()
+        assertEquals(1, stats.requests)
+        assertEquals(0, stats.slowRequests)
+        assertTrue(stats.activeRequests.isEmpty())
+        val download = stats.phases.first { it.phase == RequestPhase.DOWNLOAD }
+        assertEquals(PhaseStats(RequestPhase.DOWNLOAD, 2, 7, 7), download)
+        assertEquals(1, stats.phases.first { it.phase == RequestPhase.INDEX_LOOKUP }.count)
+    }
+
+    @Test
+    fun testSlowRequests() {
+        val metrics = RequestMetrics(0)
+        val timer = metrics.start("1")
+        timer.record(AnalysisPhase.SCAN, TimeUnit.MILLISECONDS.toNanos(1))
+        metrics.finish(timer)
+        val stats = metrics.stats()
+        assertEquals(1, stats.slowRequests)
+        assertEquals(mapOf(RequestPhase.SCAN to 1L), stats.recentSlowRequests.single().phases)
+    }
+
+    @Test
+    fun testAnalysisPhases() {
+        AnalysisPhase.values().forEach { RequestPhase.valueOf(it.name) }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.*
+import com.devexperts.usages.server.artifact1
+import com.devexperts.usages.server.member1
+import com.devexperts.usages.server.member2
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+
+class UsagesJobStoreTest {
+    private val directory = createTempDir("jobs")
+    private val request = MemberUsageRequest(member = member1, searchScope = ArtifactMask(), findClasses = true,
+            findMethods = true, findFields = true, findDerivedClassesUsages = false, findDerivedMethodsUsages = false)
+    private var time = 0L
+
+    private fun usage(line: Int) = MemberUsage(member1, UsageKind.NEW, Location(artifact1, member2, null, line))
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testPages() {
+        val store = UsagesJobStore(directory, Long.MAX_VALUE, 1000) { time }
+        val job = store.create(request)
+        job.onArtifactsFound(2)
+        job.onArtifactsProcessed(1)
+        (0 until 200).forEach { job.append(usage(it)) }
+        assertEquals(UsagesJobStatus(job.id, request, UsagesJobState.RUNNING, 2, 1, 200, null), job.status())
+        assertEquals((130 until 140).map { usage(it) }, store.get(job.id).page(130, 10).usages)
+        assertEquals((190 until 200).map { usage(it) }, job.page(190, 100).usages)
+        assertTrue(job.page(200, 10).usages.isEmpty())
+        job.finish(UsagesJobState.COMPLETED)
+        job.append(usage(200))
+        assertEquals(UsagesJobState.COMPLETED, job.page(0, 1).state)
+        assertEquals(200, job.status().usages)
+    }
+
+    @Test
+    fun testTtl() {
+        val store = UsagesJobStore(directory, Long.MAX_VALUE, 1000) { time }
+        val running = store.create(request)
+        val finished = store.create(request)
+        finished.finish(UsagesJobState.COMPLETED)
+        time = 1000
+        store.get(running.id)
+        assertNotFound { store.get(finished.id) }
+        assertEquals(1, directory.listFiles().size)
+    }
+
+    @Test
+    fun testDiskSize() {
+        // Usages with two-digit line numbers have the same size
+        val usageSize = ObjectMapper().writeValueAsBytes(usage(10)).size + 1L
+        val store = UsagesJobStore(directory, usageSize * 50, 1000) { time }
+        val finished = store.create(request)
+        (10 until 40).forEach { finished.append(usage(it)) }
+        finished.finish(UsagesJobState.COMPLETED)
+        val running = store.create(request)
+        (10 until 40).forEach { running.append(usage(it)) }
+        assertEquals(usageSize * 60, store.diskSize())
+        running.finish(UsagesJobState.COMPLETED)
+        assertNotFound { store.get(finished.id) }
+        assertEquals(usageSize * 30, store.diskSize())
+        // A job which exceeds the limit alone fails
+        val large = store.create(request)
+        (10 until 70).forEach { large.append(usage(it)) }
+        assertEquals(UsagesJobState.FAILED, large.status().state)
+    }
+
+    @Test
+    fun testRunningJobsDiskSize() {
+        val usageSize = ObjectMapper().writeValueAsBytes(usage(10)).size + 1L
+        val store = UsagesJobStore(directory, usageSize * 100, 1000) { time }
+        val large = store.create(request)
+        (10 until 80).forEach { large.append(usage(it)) }
+        val small = store.create(request)
+        (10 until 74).forEach { small.append(usage(it)) }
+        // Running jobs exceed the limit together, so the largest one fails
+        assertEquals(UsagesJobState.FAILED, large.status().state)
+        assertNotFound { store.get(large.id) }
+        assertEquals(UsagesJobState.RUNNING, small.status().state)
+        assertEquals(usageSize * 64, store.diskSize())
+    }
+
+    @Test
+    fun testRemove() {
+        val store = UsagesJobStore(directory, Long.MAX_VALUE, 1000) { time }
+        val job = store.create(request)
+        job.append(usage(1))
+        store.remove(job.id)
+        assertEquals(UsagesJobState.CANCELLED, job.status().state)
+        assertNotFound { store.get(job.id) }
+        assertNotFound { job.page(0, 1) }
+        assertTrue(directory.listFiles().isEmpty())
+    }
+
+    private fun assertNotFound(action: () -> Unit) {
+        try {
+            action()
+            fail("JobNotFoundException expected")
+        } catch (e: JobNotFoundException) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2017 Devexperts LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.devexperts.usages.server.requests
+
+import com.devexperts.usages.api.*
+import com.devexperts.usages.server.artifact1
+import com.devexperts.usages.server.member1
+import com.devexperts.usages.server.member2
+import org.junit.Assert.*
+import org.junit.Test
+
+class UsagesResultCacheTest {
+    private val usage = MemberUsage(member1, UsageKind.NEW, Location(artifact1, member2, null, 1))
+
+    private fun request(member: Member, findClasses: Boolean = false, maxUsages: Int = 0) = MemberUsageRequest(
+            member = member, searchScope = ArtifactMask(), findClasses = findClasses, findMethods = true,
+            findFields = true, findDerivedClassesUsages = false, findDerivedMethodsUsages = false, maxUsages = maxUsages)
+
+    @Test
+    fun testGeneration() {
+        val cache = UsagesResultCache(10)
+        cache.put(request(member1), 1, listOf(usage))
+        assertEquals(listOf(usage), cache.get(request(member1), 1))
+        // Not applicable options are ignored
+        assertEquals(listOf(usage), cache.get(request(member1, findClasses = true, maxUsages = 5), 1))
+        assertNull(cache.get(request(member1), 2))
+        assertNull(cache.get(request(member1), 1))
+        assertEquals(UsagesResultCacheStats(results = 0, usages = 0, maxUsages = 10, hits = 2, misses = 2,
+                evictions = 0), cache.stats())
+    }
+
+    @Test
+    fun testEviction() {
+        val cache = UsagesResultCache(3)
+        cache.put(request(member1), 1, listOf(usage, usage))
+        cache.put(request(member2), 1, listOf(usage))
+        assertNotNull(cache.get(request(member1), 1))
+        cache.put(request(Member.fromPackage("com.devexperts")), 1, listOf(usage))
+        // The least recently used result is evicted
+        assertNull(cache.get(request(member2), 1))
+        assertNotNull(cache.get(request(member1), 1))
+        assertEquals(1, cache.stats().evictions)
+    }
+}